@@ -0,0 +1,285 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.benchmark;
+
+import hangman.server.ClientInfo;
+import hangman.server.EventLoop;
+import hangman.server.Registry;
+import hangman.server.SessionDirectory;
+import hangman.server.Worker;
+import hangman.utils.LobbyCodec;
+import hangman.utils.LobbyMessage;
+import hangman.utils.Message;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/** Measures the broadcast of START_MATCH: a master creates a match of N guessers, the guessers join it,
+ *  and the master starts it as soon as it is warned that the match is full.
+ *  The benchmark reports the time from the join request of the last guesser to the reception
+ *  of START_MATCH by every guesser, on the event loops ("selector") or on the blocking workers ("blocking").
+ *  It must be launched from the directory containing match_settings.json, passing the mode as argument
+*/
+public class BroadcastBenchmark
+{
+	/* numbers of guessers of a match */
+	private static final int GUESSERS[] = { 10, 100, 1000 };
+	/* number of warm up matches */
+	private static final int WARMUP = 5;
+	/* number of measured matches for each size */
+	private static final int ROUNDS = 15;
+	/* number of event loops */
+	private static final int LOOPS = 2;
+	/* maximum amount of time to wait for a broadcast, in milliseconds */
+	private static final long TIMEOUT = 10000;
+
+	/* port of the server */
+	private static int port;
+	/* number of the played matches, used to give new usernames to the clients */
+	private static int matches = 0;
+
+	public static void main( final String argv[] ) throws Exception
+	{
+		String mode = (argv.length > 0) ? argv[0] : "selector";
+		int max_guessers = GUESSERS[GUESSERS.length - 1];
+
+		Registry.max_matches = 10;
+		Registry.max_users = 2 * (max_guessers + 1);
+		Registry.users = new SessionDirectory( Registry.max_users );
+		Worker.init();
+
+		// the workers' log is not part of the measure
+		PrintStream stdout = System.out;
+		System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+		startServer( mode );
+
+		for(int i = 0; i < WARMUP; i++)
+			play( GUESSERS[0] );
+
+		for(int guessers : GUESSERS){
+			double last[] = new double[ROUNDS], median[] = new double[ROUNDS];
+			for(int i = 0; i < ROUNDS; i++){
+				double latency[] = play( guessers );
+				median[i] = latency[latency.length / 2];
+				last[i] = latency[latency.length - 1];
+			}
+
+			Arrays.sort( median );
+			Arrays.sort( last );
+			stdout.println( mode + ", " + guessers + " GUESSERS: START_MATCH received by half of them in " + median[ROUNDS / 2] +
+							" ms, by all of them in " + last[ROUNDS / 2] + " ms (median of " + ROUNDS + " matches, worst " + last[ROUNDS - 1] + " ms)" );
+		}
+
+		System.exit( 0 );
+	}
+
+	/** start the lobby server on a free port
+	 *
+	 * @param mode	"selector" for the event loops, "blocking" for a worker thread for each client
+	*/
+	private static void startServer( final String mode ) throws Exception
+	{
+		final ServerSocket server = new ServerSocket( 0, Registry.max_users );
+		port = server.getLocalPort();
+
+		Thread acceptor;
+		if(mode.equals( "blocking" )){
+			final Executor executor = Registry.newVirtualExecutor();
+			acceptor = new Thread(){
+				@Override
+				public void run()
+				{
+					try{
+						while(true)
+							executor.execute( new Worker( server.accept() ) );
+					}catch( Exception e ){}
+				}
+			};
+		}
+		else{
+			server.close();
+			acceptor = new Thread(){
+				@Override
+				public void run()
+				{
+					try{
+						EventLoop.serve( port, LOOPS, Registry.max_users );
+					}catch( IOException e ){
+						e.printStackTrace();
+					}
+				}
+			};
+		}
+
+		acceptor.setDaemon( true );
+		acceptor.start();
+
+		// wait until the server accepts the connections
+		while(true){
+			try{
+				new Socket( InetAddress.getLoopbackAddress(), port ).close();
+				break;
+			}catch( IOException e ){
+				Thread.sleep( 10 );
+			}
+		}
+	}
+
+	/** play a match, and return the sorted times taken by the guessers to receive START_MATCH, in milliseconds
+	 *
+	 * @param guessers	number of guessers
+	*/
+	private static double[] play( final int guessers ) throws Exception
+	{
+		String master = "master" + (++matches);
+
+		Client master_client = new Client( master );
+		master_client.request( Message.MASTER, guessers + "" );
+		master_client.expect( Message.MATCH_CREATED );
+
+		Client clients[] = new Client[guessers];
+		for(int i = 0; i < guessers; i++)
+			clients[i] = new Client( "guesser" + matches + "_" + i );
+
+		final long received[] = new long[guessers];
+		final CountDownLatch latch = new CountDownLatch( guessers );
+
+		// all the guessers but the last one join the match, and wait for its start
+		for(int i = 0; i < guessers - 1; i++){
+			clients[i].request( Message.GUESSER, master );
+			clients[i].expect( Message.ADDED_TO_MATCH );
+			clients[i].waitStart( received, i, latch );
+		}
+
+		long start = System.nanoTime();
+
+		clients[guessers - 1].request( Message.GUESSER, master );
+		clients[guessers - 1].expect( Message.ADDED_TO_MATCH );
+		clients[guessers - 1].waitStart( received, guessers - 1, latch );
+
+		// the master starts the match as soon as it is full
+		master_client.expect( Message.START_MATCH );
+		master_client.request( Message.START_MATCH, "" );
+
+		if(!latch.await( TIMEOUT, TimeUnit.MILLISECONDS ))
+			throw new IllegalStateException( "START_MATCH not received by " + latch.getCount() + " guessers" );
+
+		double latency[] = new double[guessers];
+		for(int i = 0; i < guessers; i++)
+			latency[i] = (received[i] - start) / 1000000.0;
+		Arrays.sort( latency );
+
+		master_client.close();
+		for(int i = 0; i < guessers; i++)
+			clients[i].close();
+
+		return latency;
+	}
+
+	/** lobby client speaking the binary protocol */
+	private static class Client
+	{
+		/* the username */
+		private String username;
+		/* the session of the client */
+		private ClientInfo session;
+		/* the socket */
+		private Socket socket;
+		/* socket input stream */
+		private DataInputStream in;
+		/* socket output stream */
+		private OutputStream out;
+		/* buffer of the received frames */
+		private byte frame[] = new byte[LobbyCodec.MAX_FRAME_SIZE];
+		/* buffer of the requests */
+		private ByteBuffer request = ByteBuffer.allocate( LobbyCodec.MAX_FRAME_SIZE );
+
+		public Client( final String username ) throws IOException
+		{
+			this.username = username;
+			session = new ClientInfo( null );
+			Registry.users.claim( username, session );
+
+			socket = new Socket( InetAddress.getLoopbackAddress(), port );
+			socket.setTcpNoDelay( true );
+			in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+			out = socket.getOutputStream();
+
+			out.write( (LobbyCodec.helloMessage( username ) + "\n").getBytes( StandardCharsets.UTF_8 ) );
+			out.flush();
+			LobbyCodec.readStreamHeader( in );
+		}
+
+		/** send a request
+		 *
+		 * @param type		type of the request
+		 * @param argument	argument of the request
+		*/
+		public void request( final char type, final String argument ) throws IOException
+		{
+			request.clear();
+			LobbyCodec.encodeRequest( request, type, argument );
+			out.write( request.array(), 0, request.position() );
+			out.flush();
+		}
+
+		/** read a message of the expected type
+		 *
+		 * @param type	the type
+		*/
+		public void expect( final char type ) throws IOException
+		{
+			LobbyMessage message = LobbyCodec.readMessage( in, frame );
+			if(message == null || message.getType() != type)
+				throw new IOException( "expected " + type + ", received " + ((message == null) ? "EOF" : message.getType()) );
+		}
+
+		/** wait for START_MATCH on a new thread, recording the time of its reception
+		 *
+		 * @param received	times of the receptions, in nanoseconds
+		 * @param index		index of the guesser
+		 * @param latch		counter of the guessers waiting for START_MATCH
+		*/
+		public void waitStart( final long received[], final int index, final CountDownLatch latch )
+		{
+			Thread reader = new Thread(){
+				@Override
+				public void run()
+				{
+					try{
+						expect( Message.START_MATCH );
+						received[index] = System.nanoTime();
+						latch.countDown();
+					}catch( IOException e ){}
+				}
+			};
+
+			reader.setDaemon( true );
+			reader.start();
+		}
+
+		/** close the connection, and end the session */
+		public void close()
+		{
+			try{ socket.close(); }
+			catch( IOException e ){}
+
+			Registry.users.remove( username, session );
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.benchmark;
+
+import hangman.utils.GamePacket;
+import hangman.utils.MatchCipher;
+import hangman.utils.Message;
+
+import java.nio.ByteBuffer;
+
+import org.jasypt.util.text.BasicTextEncryptor;
+
+/** Compares the cost of protecting a NEW_LETTER packet with the password based encryption of every field
+ *  (the previous scheme) and with the AES-GCM cipher of the match.
+*/
+public class CipherBenchmark
+{
+	/* number of warm up iterations */
+	private static final int WARMUP = 2000;
+	/* number of measured iterations of the password based encryption */
+	private static final int PBE_ITERATIONS = 2000;
+	/* number of measured iterations of the match cipher */
+	private static final int GCM_ITERATIONS = 200000;
+
+	/* sink preventing the elimination of the measured code */
+	private static long sink = 0;
+
+	public static void main( final String argv[] ) throws Exception
+	{
+		BasicTextEncryptor encryptor = new BasicTextEncryptor();
+		encryptor.setPassword( "match1" );
+
+		for(int i = 0; i < WARMUP; i++)
+			sink += pbe( encryptor );
+
+		long start = System.nanoTime();
+		for(int i = 0; i < PBE_ITERATIONS; i++)
+			sink += pbe( encryptor );
+		long pbe_time = (System.nanoTime() - start) / PBE_ITERATIONS;
+
+		MatchCipher cipher = new MatchCipher( "match1" );
+		GamePacket packet = new GamePacket();
+		packet.set( Message.NEW_LETTER, 'e', "guesser1", 42, null );
+		ByteBuffer plain = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE );
+		ByteBuffer encrypted = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE + MatchCipher.OVERHEAD );
+		ByteBuffer decrypted = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE + MatchCipher.OVERHEAD );
+
+		for(int i = 0; i < WARMUP * 10; i++)
+			sink += gcm( cipher, packet, plain, encrypted, decrypted );
+
+		start = System.nanoTime();
+		for(int i = 0; i < GCM_ITERATIONS; i++)
+			sink += gcm( cipher, packet, plain, encrypted, decrypted );
+		long gcm_time = (System.nanoTime() - start) / GCM_ITERATIONS;
+
+		System.out.println( "PER-FIELD PBE (4 FIELDS): " + pbe_time + " ns/packet" );
+		System.out.println( "MATCH AES-GCM:            " + gcm_time + " ns/packet" );
+		System.out.println( "(sink " + sink + ")" );
+	}
+
+	/** encrypt and decrypt the fields of a NEW_LETTER packet as the previous scheme did */
+	private static int pbe( final BasicTextEncryptor encryptor )
+	{
+		int length = 0;
+
+		length += encryptor.decrypt( encryptor.encrypt( Message.NEW_LETTER + "" ) ).length();
+		length += encryptor.decrypt( encryptor.encrypt( "e" ) ).length();
+		length += encryptor.decrypt( encryptor.encrypt( "guesser1" ) ).length();
+		length += encryptor.decrypt( encryptor.encrypt( "42" ) ).length();
+
+		return length;
+	}
+
+	/** encode, encrypt, decrypt and decode a NEW_LETTER packet with the match cipher */
+	private static int gcm( final MatchCipher cipher, final GamePacket packet, final ByteBuffer plain,
+							final ByteBuffer encrypted, final ByteBuffer decrypted ) throws Exception
+	{
+		plain.clear();
+		packet.encode( plain );
+		plain.flip();
+
+		encrypted.clear();
+		cipher.encrypt( plain, encrypted );
+		encrypted.flip();
+
+		decrypted.clear();
+		if(!cipher.decrypt( encrypted, decrypted ))
+			throw new IllegalStateException( "packet not authentic" );
+
+		return decrypted.position();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.benchmark;
+
+import hangman.server.ClientInfo;
+import hangman.server.Registry;
+import hangman.server.SessionDirectory;
+import hangman.server.Worker;
+import hangman.utils.Message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Compares the pooled and the virtual thread execution of the workers.
+ *  N clients connect to the server, send the hello message and stay in the lobby:
+ *  the benchmark measures how many of them are activated (and how fast) by each execution mode.
+ *  It must be launched from the directory containing match_settings.json.
+*/
+public class ExecutionModeBenchmark
+{
+	/* number of threads of the pooled mode */
+	private static final int POOL_SIZE = 32;
+	/* maximum amount of time to wait for the activation of all the clients */
+	private static final long TIMEOUT = 5000;
+
+	public static void main( final String argv[] ) throws Exception
+	{
+		int n_clients = (argv.length > 0) ? Integer.parseInt( argv[0] ) : 2000;
+
+		Registry.max_matches = 10;
+		Registry.max_users = n_clients;
+		Worker.init();
+
+		run( "POOLED (" + POOL_SIZE + " THREADS)", Executors.newFixedThreadPool( POOL_SIZE ), n_clients );
+		// without virtual threads the executor would run a platform thread for each client
+		if(Registry.supportsVirtualThreads())
+			run( "VIRTUAL THREADS", Registry.newVirtualExecutor(), n_clients );
+		else
+			System.out.println( "VIRTUAL THREADS: NOT SUPPORTED BY THIS JVM, SKIPPED" );
+	}
+
+	/** run a single measure
+	 *
+	 * @param mode			name of the execution mode
+	 * @param executor		the executor running the workers
+	 * @param n_clients		number of lobby clients
+	*/
+	private static void run( final String mode, final ExecutorService executor, final int n_clients ) throws Exception
+	{
+		Registry.users = new SessionDirectory( n_clients );
+		for(int i = 0; i < n_clients; i++)
+			Registry.users.claim( "bench" + i, new ClientInfo( null ) );
+
+		final ServerSocket server = new ServerSocket( 0, n_clients );
+		Thread acceptor = new Thread(){
+			@Override
+			public void run()
+			{
+				try{
+					while(true)
+						executor.execute( new Worker( server.accept() ) );
+				}catch( Exception e ){}
+			}
+		};
+		acceptor.start();
+
+		// the workers' log is not part of the measure
+		PrintStream stdout = System.out;
+		System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+		long start = System.nanoTime();
+
+		ArrayList<Socket> clients = new ArrayList<Socket>( n_clients );
+		for(int i = 0; i < n_clients; i++){
+			Socket socket = new Socket( InetAddress.getLoopbackAddress(), server.getLocalPort() );
+			new PrintWriter( socket.getOutputStream(), true ).println( Message.HELLO + "bench" + i );
+			clients.add( socket );
+		}
+
+		int activated = 0;
+		long elapsed;
+		while((elapsed = (System.nanoTime() - start) / 1000000) < TIMEOUT && (activated = countActivated()) < n_clients)
+			Thread.sleep( 1 );
+
+		System.setOut( stdout );
+		System.out.println( mode + ": " + activated + "/" + n_clients + " CLIENTS ACTIVATED IN " + elapsed + " ms, "
+							+ "LIVE THREADS: " + Thread.activeCount() );
+
+		System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+		for(int i = 0; i < n_clients; i++){
+			try{ clients.get( i ).close(); }
+			catch( IOException e ){}
+		}
+		server.close();
+		executor.shutdown();
+		executor.awaitTermination( TIMEOUT, TimeUnit.MILLISECONDS );
+		System.setOut( stdout );
+	}
+
+	/** return the number of clients whose worker has processed the hello message */
+	private static int countActivated()
+	{
+		int activated = 0;
+
+		Iterator<ClientInfo> it = Registry.users.snapshot().values().iterator();
+		while(it.hasNext()){
+			if(it.next().isInMatch())
+				activated++;
+		}
+
+		return activated;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.benchmark;
+
+import hangman.server.GuessWord;
+import hangman.utils.GamePacket;
+import hangman.utils.Message;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/** Compares the cost of a guess, from the check of the letter to the encoding of the PARTIAL_RESULT packet,
+ *  with the previous GuessWord (a scan of the word and a new String for every packet) and with the current one.
+ *  Every word is played from the start for GAMES times, guessing all the letters of its alphabet
+*/
+public class GuessWordBenchmark
+{
+	/* number of played games for each word */
+	private static final int GAMES = 20000;
+	/* number of warm up games */
+	private static final int WARMUP = 5000;
+	/* the words, with the letters played on them (the last one is greek) */
+	private static final String WORDS[][] = {
+		{ "distributed", "etaoinshrdlucmfwypvbgkqjxz" },
+		{ "supercalifragilisticexpialidocious".repeat( 6 ), "etaoinshrdlucmfwypvbgkqjxz" },
+		{ "\u03b1\u03bb\u03b5\u03be\u03b1\u03bd\u03b4\u03c1\u03bf\u03c2", "\u03b1\u03b5\u03bf\u03bb\u03bd\u03c1\u03c2\u03b4\u03be\u03c0\u03c4\u03ba" }
+	};
+
+	/* sink preventing the elimination of the measured code */
+	private static long sink = 0;
+
+	public static void main( final String argv[] )
+	{
+		GamePacket packet = new GamePacket();
+		ByteBuffer buffer = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE );
+
+		for(String test[] : WORDS){
+			String word = test[0];
+			char letters[] = test[1].toCharArray();
+
+			measure( "LEGACY  " + word.length() + " CHARS", word, letters, packet, buffer, true, WARMUP );
+			measure( "LEGACY  " + word.length() + " CHARS", word, letters, packet, buffer, true, GAMES );
+			measure( "MASKS   " + word.length() + " CHARS", word, letters, packet, buffer, false, WARMUP );
+			measure( "MASKS   " + word.length() + " CHARS", word, letters, packet, buffer, false, GAMES );
+		}
+
+		System.out.println( "(sink " + sink + ")" );
+	}
+
+	/** play the games of a word
+	 *
+	 * @param name		name of the measure
+	 * @param word		the word
+	 * @param letters	the played letters
+	 * @param packet	packet of the partial results
+	 * @param buffer	encoding buffer
+	 * @param legacy	TRUE to use the previous implementation
+	 * @param games		number of games, the result is printed only for the measured ones
+	*/
+	private static void measure( final String name, final String word, final char letters[], final GamePacket packet,
+								 final ByteBuffer buffer, final boolean legacy, final int games )
+	{
+		// the words are created before the measure, which includes only the guesses
+		LegacyGuessWord old_words[] = legacy ? new LegacyGuessWord[games] : null;
+		GuessWord new_words[] = legacy ? null : new GuessWord[games];
+		for(int i = 0; i < games; i++){
+			if(legacy)
+				old_words[i] = new LegacyGuessWord( word );
+			else
+				new_words[i] = new GuessWord( word );
+		}
+
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+
+		for(int i = 0; i < games; i++){
+			for(char c : letters){
+				CharSequence partial;
+				if(legacy){
+					sink += old_words[i].checkCharacter( c ) ? 1 : 0;
+					partial = old_words[i].getPartialWord();
+				}
+				else{
+					sink += new_words[i].checkCharacter( c ) ? 1 : 0;
+					partial = new_words[i].getPartial();
+				}
+
+				packet.set( Message.PARTIAL_RESULT, c, "guesser1", 0, partial );
+				buffer.clear();
+				packet.encode( buffer );
+				sink += buffer.position();
+			}
+		}
+
+		long elapsed = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+
+		if(games == GAMES){
+			long guesses = (long) games * letters.length;
+			System.out.println( name + ": " + (elapsed / guesses) + " ns/guess, " + (allocated / guesses) + " bytes allocated/guess" );
+		}
+	}
+
+	/** return the bytes allocated so far by the current thread */
+	private static long allocatedBytes()
+	{
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	/** the previous implementation of GuessWord */
+	private static class LegacyGuessWord
+	{
+		/* the word to be guessed */
+		private char word_array[];
+		/* length of the word */
+		private int length;
+		/* the partial word */
+		private char partial_word[];
+
+		public LegacyGuessWord( final String word )
+		{
+			word_array = word.toLowerCase().toCharArray();
+
+			length = word.length();
+			partial_word = new char[length];
+			for(int i = 0; i < length; i++)
+				partial_word[i] = '_';
+		}
+
+		public boolean checkCharacter( final char c )
+		{
+			boolean founded = false;
+
+			for(int i = 0; i < length; i++){
+				if(word_array[i] == c){
+					partial_word[i] = c;
+					founded = true;
+				}
+			}
+
+			return founded;
+		}
+
+		public String getPartialWord()
+		{
+			return new String( partial_word );
+		}
+	}
+}
\ No newline at end of file
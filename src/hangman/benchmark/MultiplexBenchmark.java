@@ -0,0 +1,106 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.benchmark;
+
+import hangman.utils.GamePacket;
+import hangman.utils.MatchCipher;
+import hangman.utils.Message;
+
+import java.nio.ByteBuffer;
+
+/** Measures the cost paid by a player when its multicast group is shared by several matches:
+ *  for every packet of its own match the player also receives the packets of the other matches of the group.
+ *  The foreign packets are dropped by looking at the match id, or (as if the packets had no id)
+ *  by trying to decrypt them with the key of the own match.
+ *  The number of groups needed by MATCHES matches is reported for every sharing factor.
+*/
+public class MultiplexBenchmark
+{
+	/* number of concurrent matches of the server */
+	private static final int MATCHES = 1000;
+	/* numbers of matches sharing a group */
+	private static final int PER_GROUP[] = { 1, 4, 16, 64 };
+	/* number of warm up rounds */
+	private static final int WARMUP = 5000;
+	/* number of measured rounds */
+	private static final int ROUNDS = 20000;
+
+	/* sink preventing the elimination of the measured code */
+	private static long sink = 0;
+
+	public static void main( final String argv[] ) throws Exception
+	{
+		int max = PER_GROUP[PER_GROUP.length - 1];
+
+		// one encrypted NEW_LETTER packet for each match of the group, the own match is the first one
+		GamePacket packet = new GamePacket();
+		packet.set( Message.NEW_LETTER, 'e', "guesser1", 42, null );
+		ByteBuffer plain = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE );
+		packet.encode( plain );
+		plain.flip();
+
+		// the copies without a usable id carry the id of the own match, so they are dropped only by the tag check
+		ByteBuffer packets[] = new ByteBuffer[max], anonymous[] = new ByteBuffer[max];
+		for(int i = 0; i < max; i++){
+			MatchCipher cipher = new MatchCipher( "match" + (i + 1), i + 1 );
+			packets[i] = ByteBuffer.allocateDirect( GamePacket.MAX_PACKET_SIZE + MatchCipher.OVERHEAD );
+			cipher.encrypt( plain.duplicate(), packets[i] );
+			packets[i].flip();
+
+			anonymous[i] = ByteBuffer.allocateDirect( packets[i].remaining() );
+			anonymous[i].put( packets[i].duplicate() );
+			anonymous[i].putInt( 0, 1 );
+			anonymous[i].flip();
+		}
+
+		MatchCipher own = new MatchCipher( "match1", 1 );
+		ByteBuffer decoded = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE + MatchCipher.OVERHEAD );
+
+		for(int i = 0; i < WARMUP; i++){
+			sink += round( own, packets, max, decoded );
+			sink += round( own, anonymous, max, decoded );
+		}
+
+		for(int per_group : PER_GROUP){
+			long start = System.nanoTime();
+			for(int i = 0; i < ROUNDS; i++)
+				sink += round( own, packets, per_group, decoded );
+			long filtered = (System.nanoTime() - start) / ROUNDS;
+
+			start = System.nanoTime();
+			for(int i = 0; i < ROUNDS; i++)
+				sink += round( own, anonymous, per_group, decoded );
+			long trial = (System.nanoTime() - start) / ROUNDS;
+
+			System.out.println( "MATCHES PER GROUP " + per_group + ": " + ((MATCHES + per_group - 1) / per_group) + " groups, " +
+								filtered + " ns/own packet with the match id, " + trial + " ns/own packet with trial decryption" );
+		}
+
+		System.out.println( "(sink " + sink + ")" );
+	}
+
+	/** receive one packet of each match of the group
+	 *
+	 * @param cipher		cipher of the own match
+	 * @param packets		encrypted packets, the first one belongs to the own match
+	 * @param per_group		number of matches sharing the group
+	 * @param decoded		decryption buffer
+	 *
+	 * @return the number of accepted packets
+	*/
+	private static int round( final MatchCipher cipher, final ByteBuffer packets[], final int per_group,
+							  final ByteBuffer decoded )
+	{
+		int accepted = 0;
+
+		for(int i = 0; i < per_group; i++){
+			decoded.clear();
+			if(cipher.decrypt( packets[i].duplicate(), decoded ))
+				accepted++;
+		}
+
+		return accepted;
+	}
+}
\ No newline at end of file
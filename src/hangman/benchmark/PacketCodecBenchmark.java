@@ -0,0 +1,134 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.benchmark;
+
+import hangman.utils.GamePacket;
+import hangman.utils.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.json.simple.JSONObject;
+
+/** Compares the size and the cost of a NEW_LETTER packet encoded as a serialized JSONObject
+ *  (the previous format) and as a GamePacket. The encryption is not part of the measure.
+*/
+public class PacketCodecBenchmark
+{
+	/* number of warm up iterations */
+	private static final int WARMUP = 200000;
+	/* number of measured iterations */
+	private static final int ITERATIONS = 1000000;
+
+	/* sink preventing the elimination of the measured code */
+	private static long sink = 0;
+
+	public static void main( final String argv[] ) throws Exception
+	{
+		JSONObject json = createJSON();
+		byte serialized[] = serialize( json );
+
+		GamePacket packet = new GamePacket();
+		packet.set( Message.NEW_LETTER, 'e', "guesser1", 42, null );
+		ByteBuffer buffer = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE );
+		packet.encode( buffer );
+
+		System.out.println( "NEW_LETTER SIZE: JSON " + serialized.length + " bytes, BINARY " + buffer.position() + " bytes" );
+
+		for(int i = 0; i < WARMUP; i++){
+			sink += serialize( json ).length;
+			sink += deserialize( serialized ).size();
+		}
+		measure( "JSON ENCODE + DECODE", json, serialized, null, null, null );
+
+		GamePacket decoded = new GamePacket();
+		for(int i = 0; i < WARMUP; i++){
+			buffer.clear();
+			packet.encode( buffer );
+			buffer.flip();
+			decoded.decode( buffer );
+		}
+		measure( "BINARY ENCODE + DECODE", null, null, packet, decoded, buffer );
+
+		System.out.println( "(sink " + sink + ")" );
+	}
+
+	/** run a measure of one of the two formats
+	 *
+	 * @param name			name of the measure
+	 * @param json			JSON message (JSON format only)
+	 * @param serialized	serialized message (JSON format only)
+	 * @param packet		packet to encode (binary format only)
+	 * @param decoded		packet to decode (binary format only)
+	 * @param buffer		encoding buffer (binary format only)
+	*/
+	private static void measure( final String name, final JSONObject json, final byte serialized[],
+								 final GamePacket packet, final GamePacket decoded, final ByteBuffer buffer ) throws Exception
+	{
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+
+		for(int i = 0; i < ITERATIONS; i++){
+			if(json != null){
+				sink += serialize( json ).length;
+				sink += deserialize( serialized ).size();
+			}
+			else{
+				buffer.clear();
+				packet.encode( buffer );
+				buffer.flip();
+				if(decoded.decode( buffer ))
+					sink += decoded.getPktNumber();
+			}
+		}
+
+		long elapsed = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+
+		System.out.println( name + ": " + (elapsed / ITERATIONS) + " ns/op, " + (allocated / ITERATIONS) + " bytes allocated/op" );
+	}
+
+	/** return the bytes allocated so far by the current thread */
+	private static long allocatedBytes()
+	{
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	/** create a NEW_LETTER packet in the previous format (without the encryption of the fields) */
+	@SuppressWarnings("unchecked")
+	private static JSONObject createJSON()
+	{
+		JSONObject object = new JSONObject();
+
+		object.put( "type", Message.NEW_LETTER + "" );
+		object.put( "letter", "e" );
+		object.put( "guesser", "guesser1" );
+		object.put( "pkt_number", "42" );
+
+		return object;
+	}
+
+	/** serialize a JSON object as the previous format did */
+	private static byte[] serialize( final JSONObject object ) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream( baos );
+		oos.writeObject( object );
+		oos.flush();
+
+		return baos.toByteArray();
+	}
+
+	/** deserialize a JSON object as the previous format did */
+	private static JSONObject deserialize( final byte buffer[] ) throws IOException, ClassNotFoundException
+	{
+		return (JSONObject) new ObjectInputStream( new ByteArrayInputStream( buffer ) ).readObject();
+	}
+}
\ No newline at end of file
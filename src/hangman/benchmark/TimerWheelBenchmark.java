@@ -0,0 +1,169 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.benchmark;
+
+import hangman.utils.TimerWheel;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.Timer;
+
+/** Measures the timers of BOTS players, each one rearming a 200 ms ack timer at every expiration for DURATION milliseconds
+ *  and restarting it once (as a received ack does), on the shared TimerWheel and on a javax.swing.Timer for each player.
+ *  The time to create the timers includes the loading of their classes, so each run must be done in a new JVM,
+ *  passing its name ("wheel" or "swing") as argument
+*/
+public class TimerWheelBenchmark
+{
+	/* number of players */
+	private static final int BOTS = 5000;
+	/* duration of the ack timer, in milliseconds */
+	private static final int TIME_ACK = 200;
+	/* duration of a run, in milliseconds */
+	private static final int DURATION = 5000;
+
+	public static void main( final String argv[] ) throws Exception
+	{
+		String mode = (argv.length > 0) ? argv[0] : "wheel";
+
+		long start = System.nanoTime();
+		Runnable bots[] = mode.equals( "swing" ) ? swingBots() : wheelBots();
+		double created = (System.nanoTime() - start) / 1000000.0;
+
+		for(Runnable bot : bots)
+			bot.run();
+		Thread.sleep( DURATION );
+
+		long lateness[] = Arrays.copyOf( LATENESS, Math.min( SAMPLES.get(), LATENESS.length ) );
+		Arrays.sort( lateness );
+
+		System.out.println( mode + ": " + BOTS + " timers created in " + created + " ms, " + Thread.activeCount() + " threads, " +
+							lateness.length + " expirations, lateness p50 " + percentile( lateness, 50 ) + " ms, p99 " +
+							percentile( lateness, 99 ) + " ms, max " + percentile( lateness, 100 ) + " ms" );
+		System.exit( 0 );
+	}
+
+	/* lateness of the expirations, in nanoseconds */
+	private static final long LATENESS[] = new long[1 << 20];
+	/* number of expirations */
+	private static final AtomicInteger SAMPLES = new AtomicInteger();
+
+	/** record the lateness of an expiration
+	 *
+	 * @param deadline	expected time of the expiration, in nanoseconds
+	*/
+	private static void record( final long deadline )
+	{
+		int i = SAMPLES.getAndIncrement();
+		if(i < LATENESS.length)
+			LATENESS[i] = System.nanoTime() - deadline;
+	}
+
+	/** return a percentile of the sorted lateness, in milliseconds
+	 *
+	 * @param sorted	the sorted lateness
+	 * @param p			the percentile
+	*/
+	private static double percentile( final long sorted[], final double p )
+	{
+		if(sorted.length == 0)
+			return 0;
+
+		int rank = (int) Math.ceil( p / 100 * sorted.length ) - 1;
+		return sorted[Math.max( 0, Math.min( sorted.length - 1, rank ) )] / 1000000.0;
+	}
+
+	/** create the players using the shared wheel */
+	private static Runnable[] wheelBots()
+	{
+		TimerWheel wheel = TimerWheel.getShared();
+
+		Runnable bots[] = new Runnable[BOTS];
+		for(int i = 0; i < BOTS; i++)
+			bots[i] = new WheelBot( wheel );
+
+		return bots;
+	}
+
+	/** create the players using a Swing timer each */
+	private static Runnable[] swingBots()
+	{
+		Runnable bots[] = new Runnable[BOTS];
+		for(int i = 0; i < BOTS; i++)
+			bots[i] = new SwingBot();
+
+		return bots;
+	}
+
+	/** player using the shared wheel; it starts its timer when it is run, and then at every expiration */
+	private static class WheelBot implements Runnable
+	{
+		/* the wheel */
+		private final TimerWheel wheel;
+		/* the ack timer */
+		private TimerWheel.Timeout timeout;
+		/* expected time of the expiration, in nanoseconds */
+		private long deadline;
+
+		public WheelBot( final TimerWheel wheel )
+		{
+			this.wheel = wheel;
+		}
+
+		@Override
+		public void run()
+		{
+			if(timeout != null)
+				record( deadline );
+
+			// the timer is armed, and restarted as an ack does
+			arm();
+			timeout.cancel();
+			arm();
+		}
+
+		/** start the ack timer */
+		private void arm()
+		{
+			deadline = System.nanoTime() + TIME_ACK * 1000000L;
+			timeout = wheel.schedule( this, TIME_ACK );
+		}
+	}
+
+	/** player using a Swing timer; it starts its timer when it is run, and then at every expiration */
+	private static class SwingBot implements Runnable, ActionListener
+	{
+		/* the ack timer */
+		private final Timer timer;
+		/* expected time of the expiration, in nanoseconds, 0 if the timer is not started */
+		private long deadline = 0;
+
+		public SwingBot()
+		{
+			timer = new Timer( TIME_ACK, this );
+			timer.setRepeats( false );
+		}
+
+		@Override
+		public void run()
+		{
+			// the timer is armed, and restarted as an ack does
+			deadline = System.nanoTime() + TIME_ACK * 1000000L;
+			timer.start();
+			deadline = System.nanoTime() + TIME_ACK * 1000000L;
+			timer.restart();
+		}
+
+		@Override
+		public void actionPerformed( final ActionEvent e )
+		{
+			record( deadline );
+			run();
+		}
+	}
+}
\ No newline at end of file
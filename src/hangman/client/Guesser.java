@@ -4,35 +4,48 @@
 
 package hangman.client;
 
+import hangman.utils.GamePacket;
 import hangman.utils.HelpMessage;
+import hangman.utils.LetterSet;
+import hangman.utils.LobbyMessage;
 import hangman.utils.Message;
+import hangman.utils.TimerWheel;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Scanner;
 
-import javax.swing.Timer;
-
-import org.json.simple.JSONObject;
 
 public class Guesser extends Player
 {
 	/* message to sent */
-	private JSONObject message;
-	/* ack timeout */
-	private Timer ackTimer;
+	private GamePacket message = new GamePacket();
+	/* ack timeout, null if no letter is in flight */
+	private TimerWheel.Timeout ackTimer;
+	/* incremented every time the ack timer changes, so an old timeout already running does nothing */
+	private int ack_generation = 0;
 	/* determines if the user can send another request */
 	private boolean send_again = false;
-	/* current packet number */
+	/* packet number of the next letter */
 	private int packet_number = 1;
-
-	/* timer duration for the ack packet */
+	/* packet number of the first letter not acknowledged yet */
+	private int first_unacked = 1;
+	/* letters in flight, indexed by packet number modulo WINDOW */
+	private char window[] = new char[WINDOW];
+	/* determines if each letter in flight is acknowledged */
+	private boolean acked[] = new boolean[WINDOW];
+	/* time of the first transmission of each letter in flight, in nanoseconds */
+	private long sent_at[] = new long[WINDOW];
+	/* determines if each letter in flight has been retransmitted */
+	private boolean retransmitted[] = new boolean[WINDOW];
+	/* round trip time towards the master, which gives the duration of the ack timer */
+	private RoundTripEstimator round_trip = new RoundTripEstimator( TIME_ACK );
+
+	/* timer duration for the ack packet, until the round trip time is measured */
 	private static final int TIME_ACK = 200;
+	/* maximum number of letters waiting for the response of the master */
+	private static final int WINDOW = 8;
 	/* regex used to check the correctness of a letter played by the user */
 	private static final String CHAR_REGEX = "[a-zA-Z]";
 
@@ -50,7 +63,7 @@ public class Guesser extends Player
 			if(command.equals( "exit" )){
 				System.out.print( "<prompt>:: DO YOU REALLY WANT TO LEAVE YOUR GROUP? (Y or N): " );
 				if(scan.nextLine().equalsIgnoreCase( "y" )){
-					try{ out.println( Message.EXIT ); }
+					try{ sendRequest( Message.EXIT, "" ); }
 					catch( Exception e ){}
 
 					closed_external = false;
@@ -70,23 +83,18 @@ public class Guesser extends Player
 				if(!command.matches( CHAR_REGEX ))
 					System.out.println( "<prompt>:: INVALID LETTER: SELECT ONE IN THE RANGE a-z or A-Z" );
 				else{
-					if(send_again){
-						message = createMessage( Message.NEW_LETTER, input, username );
-						try{
-							send( message );
-						}
-						catch( IOException e ){
-							closed_external = false;
-							closeUDPConnection();
-							return;
-						}
-	
-						ackTimer.start();
-						packet_number++;
-						send_again = false;
+					int result;
+					try{
+						result = sendLetter( input.charAt( 0 ) );
 					}
-					else
-						System.out.println( "<prompt>:: YOU HAVE TO WAIT THE RESPONSE BEFORE THE NEXT ATTEMPT" );
+					catch( IOException e ){
+						closed_external = false;
+						closeUDPConnection();
+						return;
+					}
+
+					if(result == -1)
+						System.out.println( "<prompt>:: YOU HAVE TO WAIT THE RESPONSES OF YOUR LETTERS BEFORE THE NEXT ATTEMPT" );
 				}
 			}
 			else if(command.equals( "exit" )){
@@ -105,27 +113,27 @@ public class Guesser extends Player
 	public void run()
 	{
 		try{
-			out.println( Message.GUESSER + master );
+			sendRequest( Message.GUESSER, master );
 
-			Timer timer_match = null;
+			TimerWheel.Timeout timer_match = null;
 			boolean close = false;
-			JSONObject message;
+			LobbyMessage message;
 
 			while(!close){
 				// read data from the TCP socket
-				message = (JSONObject) in.readObject();
+				message = receiveMessage();
 				if(message == null){
 					if(closed_external)
 						System.out.println( "SERVER CONNECTION IS DOWN..." );
 
 					if(timer_match != null)
-						timer_match.stop();
+						timer_match.cancel();
 
 					closeTCPConnection();
 					break;
 				}
 
-				switch( (char) message.get( "type" ) ){
+				switch( message.getType() ){
 					case( Message.MATCH_FULL ):
 						System.out.println( "THE SELECTED MATCH IS FULL" );
 						closeTCPConnection();
@@ -138,18 +146,17 @@ public class Guesser extends Player
 
 						in_game = true;
 
-						timer_match = new Timer( TIME_MATCH, new ActionListener(){
+						timer_match = scheduleBlocking( "MatchTimer", new Runnable(){
 							@Override
-							public void actionPerformed( ActionEvent e )
+							public void run()
 							{
-								out.println( Message.EXIT );
+								try{ sendRequest( Message.EXIT, "" ); }
+								catch( IOException e1 ){}
 								System.out.println( "TIME IS OVER, YOUR GROUP WILL BE CLOSED" );
 								closed_external = false;
 								closeTCPConnection();
 							}
-						} );
-
-						timer_match.start();
+						}, TIME_MATCH );
 
 						System.out.print( "<prompt>:: " );
 
@@ -172,22 +179,24 @@ public class Guesser extends Player
 					case( Message.MATCH_CLOSED ):
 						System.out.println( "YOUR GROUP IS CLOSED" );
 						close = true;
-						out.println( Message.EXIT );
+						sendRequest( Message.EXIT, "" );
 						closeTCPConnection();
 
 						break;
 
 					case( Message.START_MATCH ):
-						timer_match.stop();
+						timer_match.cancel();
 						state = START_MATCH;
 
 						// used to close the server-side TCP connection
-						out.println( Message.START_MATCH );
+						sendRequest( Message.START_MATCH, "" );
 
 						// obtains the match settings (multicast address, port and cryptographic key)
-						m_address = InetAddress.getByName( (String) message.get( "address" ) );
-						port = (int) message.get( "port" );
-						key = (String) message.get( "key" );
+						m_address = InetAddress.getByName( message.getAddress() );
+						port = message.getPort();
+						key = message.getKey();
+						match_id = message.getMatchId();
+						initCipher();
 
 						closeTCPConnection();
 
@@ -213,78 +222,52 @@ public class Guesser extends Player
 	@Override
 	protected void playGame()
 	{
-		ENCRYPTOR.setPassword( key );
-
 		System.out.println( "THE MATCH IS STARTED" );
 		System.out.print( "<prompt>:: " );
 
-		send_again = true;
-
 		try{
 			m_socket = join( port, m_address );
 
-			// ack timeout
-			ackTimer = new Timer( TIME_ACK, new ActionListener(){
-				@Override
-				public void actionPerformed( ActionEvent e )
-				{
-					try{
-						send( message );
-					}catch( IOException e1 ){
-						closeUDPConnection();
-					}
-				}
-			} );
+			// the letters are accepted once the socket is ready
+			send_again = true;
 
-			HashSet<Character> char_used = new HashSet<Character>( 16 );
+			LetterSet char_used = new LetterSet();
+			// the missed letters, in the order they are played
+			String misses = "";
 
 			boolean close = false;
-			JSONObject msg;
+			GamePacket msg;
 			while(!close){
 				msg = receive( 0 );
 				if(msg == null) // useful when the timeout is greater than 0 
 					continue;
 
-				switch( decryptMessage( msg, "type" ).charAt( 0 ) ){
+				switch( msg.getType() ){
 					case( Message.PARTIAL_RESULT ):
 						// checks if the username is equals to the guesser one
-						String guesser = decryptMessage( msg, "guesser" );
-						if(ackTimer.isRunning() && username.equals( guesser )){ // this is the ACK message
-							ackTimer.stop();
-							send_again = true;
-						}
+						String guesser = msg.getGuesser();
+						if(username.equals( guesser )) // this is the ACK message
+							acknowledge( msg );
 
 						System.out.println( "GUESSER: " + guesser );
 
-						String word = decryptMessage( msg, "word" );
-						System.out.println( "<prompt>:: WORD: " + word );
+						System.out.println( "<prompt>:: WORD: " + msg.getWord() );
 
-						char c = decryptMessage( msg, "letter" ).charAt( 0 );
-						if(!word.contains( c + "" ))
-							char_used.add( c );
+						char c = msg.getLetter();
+						if(!msg.wordContains( c ) && char_used.add( c ))
+							misses += c;
 
 						// prints all the already used characters
-						Iterator<Character> it = char_used.iterator();
-						StringBuilder string = new StringBuilder( 32 );
-						while(it.hasNext())
-							string.append( it.next() );
-						System.out.println( "<prompt>:: MISSES: " + string );
+						System.out.println( "<prompt>:: MISSES: " + misses );
 						System.out.print( "<prompt>:: " );
 
 						break;
 						
 					case( Message.GO_ON ):
-						// the Master has received too much time an old packet
-						// we have to go on discarding it
-						/*guesser = decryptMessage( msg, "guesser" );
-						if(ackTimer.isRunning() && username.equals( guesser )){ // the old packet is mine
-							ackTimer.stop();
-							send_again = true;
-						}*/
-						if(ackTimer.isRunning()){
-							ackTimer.stop();
-							send_again = true;
-						}
+						// the Master has received too much time an old packet:
+						// the message tells which packets it has received, and we go on without them
+						if(username.equals( msg.getGuesser() ))
+							acknowledge( msg );
 
 						break;
 
@@ -299,7 +282,7 @@ public class Guesser extends Player
 						break;
 
 					case( Message.GUESSER_WIN ):
-						System.out.println( "USER " + decryptMessage( msg, "guesser" ) + " WINS" );
+						System.out.println( "USER " + msg.getGuesser() + " WINS" );
 						close = true;
 						break;
 
@@ -310,33 +293,148 @@ public class Guesser extends Player
 				}
 			}
 		}
-		catch( IOException | ClassNotFoundException e ){
+		catch( IOException e ){
 			e.printStackTrace();
 		}
 
-		ackTimer.stop();
+		synchronized( this ){
+			stopAckTimer();
+		}
 		closeUDPConnection();
 
+		System.out.println( "<prompt>:: ROUND TRIP TO THE MASTER: " + round_trip );
+
 		in_game = false;
 		send_again = false;
 	}
 
-	/** create a new UDP message
+	/** send a new letter, if the window is not full
+	 * 
+	 * @param letter	the letter
+	 * 
+	 * @return 0 if the letter is sent, -1 if too many letters are waiting for the response
+	*/
+	private synchronized int sendLetter( final char letter ) throws IOException
+	{
+		if(!send_again || packet_number - first_unacked >= WINDOW)
+			return -1;
+
+		int index = packet_number % WINDOW;
+		window[index] = letter;
+		acked[index] = false;
+		retransmitted[index] = false;
+		sent_at[index] = System.nanoTime();
+
+		createMessage( Message.NEW_LETTER, letter, username, packet_number );
+		send( message );
+		packet_number++;
+
+		if(ackTimer == null)
+			startAckTimer( round_trip.getTimeout() );
+
+		return 0;
+	}
+
+	/** send again the letters not acknowledged yet, doubling the duration of the ack timer
+	 * 
+	 * @param generation	generation of the expired ack timer
+	*/
+	private synchronized void resend( final int generation ) throws IOException
+	{
+		if(generation != ack_generation)
+			return;
+
+		for(int number = first_unacked; number < packet_number; number++){
+			int index = number % WINDOW;
+			if(!acked[index]){
+				retransmitted[index] = true;
+				createMessage( Message.NEW_LETTER, window[index], username, number );
+				send( message );
+			}
+		}
+
+		startAckTimer( round_trip.backoff() );
+	}
+
+	/** mark the letters acknowledged by a message of the master, sliding the window
+	 * 
+	 * @param reply		the message
+	*/
+	private synchronized void acknowledge( final GamePacket reply )
+	{
+		long now = System.nanoTime();
+		boolean progress = false;
+
+		for(int number = first_unacked; number < packet_number; number++){
+			int index = number % WINDOW;
+			if(!acked[index] && reply.acknowledges( number )){
+				acked[index] = true;
+				progress = true;
+
+				// the ack of a retransmitted letter may answer any of its copies
+				if(!retransmitted[index])
+					round_trip.sample( now - sent_at[index] );
+			}
+		}
+
+		while(first_unacked < packet_number && acked[first_unacked % WINDOW])
+			first_unacked++;
+
+		if(first_unacked == packet_number)
+			stopAckTimer();
+		else if(progress)
+			// the letters still in flight get a whole timeout from now
+			startAckTimer( round_trip.getTimeout() );
+	}
+
+	/** (re)start the ack timer (the lock must be held)
 	 * 
-	 * @param type		type of the message
-	 * @param letter	played letter
-	 * @param guesser	own username
+	 * @param timeout	duration of the timer, in milliseconds
 	*/
-	@SuppressWarnings("unchecked")
-	private JSONObject createMessage( final char type, final String letter, final String guesser )
+	private void startAckTimer( final int timeout )
 	{
-		JSONObject object = new JSONObject();
+		stopAckTimer();
+
+		final int generation = ack_generation;
+		ackTimer = TimerWheel.getShared().schedule( new Runnable(){
+			@Override
+			public void run()
+			{
+				try{
+					resend( generation );
+				}catch( IOException e ){
+					closeUDPConnection();
+				}
+			}
+		}, timeout );
+	}
+
+	/** stop the ack timer (the lock must be held) */
+	private void stopAckTimer()
+	{
+		if(ackTimer != null){
+			ackTimer.cancel();
+			ackTimer = null;
+		}
 
-		object.put( "type", ENCRYPTOR.encrypt( type + "" ) );
-		object.put( "letter", ENCRYPTOR.encrypt( letter ) );
-		object.put( "guesser", ENCRYPTOR.encrypt( guesser ) );
-		object.put( "pkt_number", ENCRYPTOR.encrypt( packet_number + "" ) );
+		ack_generation++;
+	}
+
+	/** return the round trip time towards the master */
+	public RoundTripEstimator getRoundTrip()
+	{
+		return round_trip;
+	}
 
-		return object;
+	/** fill the UDP message with the specified content
+	 * 
+	 * @param type			type of the message
+	 * @param letter		played letter
+	 * @param guesser		own username
+	 * @param pkt_number	packet number of the letter
+	*/
+	private void createMessage( final char type, final char letter, final String guesser, final int pkt_number )
+	{
+		message.set( type, letter, guesser, pkt_number, null );
 	}
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.client;
+
+import hangman.utils.GamePacket;
+
+/** Used to manage the communications with the Guessers: their state is indexed by the slot
+ *  assigned to their names by the GamePacket, and kept in arrays of primitives.
+ *  The letters of a guesser are tracked as the last one received with all the previous ones,
+ *  plus a bitmap of the ones received after it, so they can arrive in any order inside the window
+*/
+public class GuesserTable
+{
+	/* the last packet number of each guesser received with all the previous ones */
+	private int acks[];
+	/* the packets of each guesser received after its ack, the bit i for the packet (ack + i) */
+	private int ack_masks[];
+	/* the number of old messages of each guesser */
+	private int old_duplicated_messages[];
+
+	/** create the table
+	 *
+	 * @param guessers	expected number of guessers
+	*/
+	public GuesserTable( final int guessers )
+	{
+		acks = new int[Math.max( 1, guessers )];
+		ack_masks = new int[acks.length];
+		old_duplicated_messages = new int[acks.length];
+	}
+
+	/** make room for a slot
+	 *
+	 * @param slot	slot of the guesser
+	*/
+	private void ensure( final int slot )
+	{
+		if(slot < acks.length)
+			return;
+
+		int length = Math.max( slot + 1, acks.length * 2 );
+
+		int new_acks[] = new int[length];
+		System.arraycopy( acks, 0, new_acks, 0, acks.length );
+		acks = new_acks;
+
+		int new_ack_masks[] = new int[length];
+		System.arraycopy( ack_masks, 0, new_ack_masks, 0, ack_masks.length );
+		ack_masks = new_ack_masks;
+
+		int new_old_messages[] = new int[length];
+		System.arraycopy( old_duplicated_messages, 0, new_old_messages, 0, old_duplicated_messages.length );
+		old_duplicated_messages = new_old_messages;
+	}
+
+	/** register a packet of a guesser
+	 *
+	 * @param slot			slot of the guesser
+	 * @param pkt_number	packet number
+	 *
+	 * @return 0 if the packet is new, -1 if it is already received, -2 if it is outside the window
+	*/
+	public int receive( final int slot, final int pkt_number )
+	{
+		ensure( slot );
+
+		int ack = acks[slot], mask = ack_masks[slot];
+		int distance = pkt_number - ack;
+		if(distance <= 0 || (distance < GamePacket.MAX_WINDOW && (mask >>> distance & 1) != 0))
+			return -1;
+		if(distance >= GamePacket.MAX_WINDOW)
+			return -2;
+
+		mask |= 1 << distance;
+		// the ack slides over the packets received without holes
+		while((mask & 2) != 0){
+			ack++;
+			mask = (mask >>> 1) & ~1;
+		}
+
+		acks[slot] = ack;
+		ack_masks[slot] = mask;
+		old_duplicated_messages[slot] = 0;
+
+		return 0;
+	}
+
+	/** return the last packet number of a guesser received with all the previous ones
+	 *
+	 * @param slot	slot of the guesser
+	*/
+	public int getAck( final int slot )
+	{
+		return (slot < acks.length) ? acks[slot] : 0;
+	}
+
+	/** return the packets of a guesser received after its ack
+	 *
+	 * @param slot	slot of the guesser
+	*/
+	public int getAckMask( final int slot )
+	{
+		return (slot < ack_masks.length) ? ack_masks[slot] : 0;
+	}
+
+	/** return the number of old messages received from a guesser
+	 *
+	 * @param slot	slot of the guesser
+	*/
+	public int getOldMessages( final int slot )
+	{
+		return (slot < old_duplicated_messages.length) ? old_duplicated_messages[slot] : 0;
+	}
+
+	/** increase the number of old messages of a guesser
+	 *
+	 * @param slot	slot of the guesser
+	*/
+	public void increaseOldMessages( final int slot )
+	{
+		ensure( slot );
+
+		old_duplicated_messages[slot]++;
+	}
+}
\ No newline at end of file
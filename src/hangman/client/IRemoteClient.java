@@ -4,6 +4,8 @@
 
 package hangman.client;
 
+import hangman.utils.LobbyChanges;
+
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
@@ -14,4 +16,10 @@ public interface IRemoteClient extends Remote
 	 * @param matches	string representing the current state of the matches
 	*/
 	public void updateMatches( final String matches ) throws RemoteException;
+
+	/** apply the changes of the lobby
+	 * 
+	 * @param changes	the coalesced changes, with their range of sequence numbers
+	*/
+	public void updateLobby( final LobbyChanges changes ) throws RemoteException;
 }
\ No newline at end of file
@@ -4,41 +4,32 @@
 
 package hangman.client;
 
-import hangman.server.GuessWord;
+import hangman.server.GameRound;
+import hangman.utils.GamePacket;
 import hangman.utils.HelpMessage;
+import hangman.utils.LobbyMessage;
 import hangman.utils.Message;
+import hangman.utils.TimerWheel;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Scanner;
 
-import javax.swing.Timer;
-
-import org.json.simple.JSONObject;
 
 public class Master extends Player
 {
-	/* manage the word to guess */
-	private GuessWord gw;
+	/* rules of the game and word to guess */
+	private GameRound round;
 	/* the associated timer */
-	private Timer timer;
-
-	/* maximum number of trials to guess the world */
-	private static final int MAX_TRIALS = 10;
-	/* number of trials after that we send a GO_ON message */
-	private static final int MAX_DUPLICATED_MESSAGES = 3;
+	private TimerWheel.Timeout timer;
 
 	public Master( final int customers, final Socket socket, final String username, final String guess_word ) throws IOException
 	{
 		super( customers, socket, null, username );
 
-		gw = new GuessWord( guess_word );
+		round = new GameRound( guess_word, customers );
 	}
 
 	@Override
@@ -50,7 +41,7 @@ public class Master extends Player
 			if(command.equals( "exit" )){
 				System.out.print( "<prompt>:: DO YOU REALLY WANT TO LEAVE THE MATCH? (Y or N): " );
 				if(scan.nextLine().equalsIgnoreCase( "y" )){
-					try{ out.println( Message.EXIT ); }
+					try{ sendRequest( Message.EXIT, "" ); }
 					catch( Exception e ){}
 
 					closed_external = false;
@@ -68,8 +59,7 @@ public class Master extends Player
 			if(command.equals( "exit" )){
 				System.out.print( "<prompt>:: DO YOU REALLY WANT TO CLOSE THE MATCH? (Y or N): " );
 				if(scan.nextLine().equalsIgnoreCase( "y" )){
-					JSONObject message = createMessage( Message.END_GAME, null, null, null );
-					send( message );
+					sendMessage( Message.END_GAME, (char) 0, null, 0, 0, null );
 					closeUDPConnection();
 				}
 			}
@@ -84,26 +74,28 @@ public class Master extends Player
 	public void run()
 	{
 		try{
-			out.println( Message.MASTER + "" + customers );
+			sendRequest( Message.MASTER, customers + "" );
+			// the server may run the game in place of the master
+			sendRequest( Message.WORD_TO_TELL, round.getWord() );
 
 			boolean close = false;
-			Timer timer_match = null;
-			JSONObject message;
+			TimerWheel.Timeout timer_match = null;
+			LobbyMessage message;
 
 			while(!close){
 				// read data from the TCP socket
-				if((message = (JSONObject) in.readObject()) == null){
+				if((message = receiveMessage()) == null){
 					if(closed_external)
 						System.out.println( "SERVER CONNECTION IS DOWN..." );
 
 					if(timer_match != null)
-						timer_match.stop();
+						timer_match.cancel();
 
 					closeTCPConnection();
 					break;
 				}
 
-				switch( (char) message.get( "type" ) ){
+				switch( message.getType() ){
 					case( Message.NO_MORE_MATCH ):
 						System.out.println( "SORRY BUT THE SERVER CANNOT INSTANTIATE MORE MATCHES" );
 						closeTCPConnection();
@@ -114,34 +106,38 @@ public class Master extends Player
 					case( Message.MATCH_CREATED ):
 						in_game = true;
 
-						timer_match = new Timer( TIME_MATCH, new ActionListener(){
+						timer_match = scheduleBlocking( "MatchTimer", new Runnable(){
 							@Override
-							public void actionPerformed( ActionEvent e )
+							public void run()
 							{
-								out.println( Message.EXIT );
+								try{ sendRequest( Message.EXIT, "" ); }
+								catch( IOException e1 ){}
 								System.out.println( "TIME IS OVER, YOUR MATCH WILL BE CLOSED" );
 
 								closed_external = false;
 								closeTCPConnection();
 							}
-						} );
-
-						timer_match.start();
+						}, TIME_MATCH );
 
 						System.out.println( "MATCH CREATED WITH SUCCESSFUL" );
 						System.out.print( "<prompt>:: " );
 						break;
 
 					case( Message.START_MATCH ):
-						timer_match.stop();
+						timer_match.cancel();
 						state = START_MATCH;
 
 						// obtains the match settings (multicast address, port and cryptographic key)
-						m_address = InetAddress.getByName( (String) message.get( "address" ) );
-						port = (int) message.get( "port" );
-						key = (String) message.get( "key" );
-
-						playGame();
+						m_address = InetAddress.getByName( message.getAddress() );
+						port = message.getPort();
+						key = message.getKey();
+						match_id = message.getMatchId();
+						initCipher();
+
+						if(message.isHosted())
+							watchGame();
+						else
+							playGame();
 						close = true;
 						state = WAIT_MATCH;
 
@@ -160,116 +156,65 @@ public class Master extends Player
 	}
 
 	@Override
-	protected void playGame() throws ClassNotFoundException
+	protected void playGame()
 	{
-		ENCRYPTOR.setPassword( key );
-
 		System.out.println( "THE MATCH IS STARTED" );
 
 		try{
 			m_socket = join( port, m_address );
 
 			// used to close the worker-side TCP connection
-			out.println( Message.START_MATCH );
+			sendRequest( Message.START_MATCH, "" );
 			closeTCPConnection();
 
 			// timer of the match
-			timer = new Timer( TIME_MATCH, new ActionListener(){
+			timer = scheduleBlocking( "GameTimer", new Runnable(){
 				@Override
-				public void actionPerformed( ActionEvent e )
+				public void run()
 				{
-					if(!gw.isGuessed()){
+					if(!round.isGuessed()){
 						try{
-							send( createMessage( Message.TIMEOUT, null, null, null ) );
+							sendMessage( Message.TIMEOUT, (char) 0, null, 0, 0, null );
 							System.out.println( "<prompt>:: THE TIME IS OVER. YOU HAVE WIN" );
 							closeUDPConnection();
 						}catch( IOException e1 ){}
-
-						timer.stop();
 					}
 				}
-			} );
-
-			timer.start();
+			}, TIME_MATCH );
 
-			HashMap<String, GuesserInfo> players = new HashMap<String, GuesserInfo>( customers );
-			//HashMap<String, Integer> players_pkt_number = new HashMap<String, Integer>( customers );
-			HashSet<Character> char_used = new HashSet<Character>( 32 );
 			boolean finish = false;
-			int trials = MAX_TRIALS;
-			GuesserInfo guesserInfo;
-			//Integer pkt_number;
 
 			while(!finish){
 				System.out.print( "<prompt>:: " );
 
-				JSONObject msg = receive( 0 );
-				if(decryptMessage( msg, "type" ).charAt( 0 ) != Message.NEW_LETTER) // invalid message
+				char reply = round.play( receive( 0 ) );
+				if(reply == Message.GO_ON){
+					// send a GO_ON message to notify the guesser of the packets we have received
+					sendMessageToGuesser( sender, Message.GO_ON, (char) 0, round.getGuesser(), round.getAck(), round.getAckMask(), null );
 					continue;
-
-				// obtains the expected packet number of the guesser
-				String guesser = decryptMessage( msg, "guesser" );
-				if((guesserInfo = players.get( guesser )) == null)
-					players.put( guesser, guesserInfo = new GuesserInfo() );
-
-				int msg_pkt_number = Integer.parseInt( decryptMessage( msg, "pkt_number" ) );
-				if(guesserInfo.getPktNumber() >= msg_pkt_number){
-					// this is an old message sent by ack timeout
-					if(guesserInfo.getOldMessages() == MAX_DUPLICATED_MESSAGES){
-						JSONObject message = createMessage( Message.GO_ON, null, null, null );
-						// send a GO_ON message to notify the guesser that we have received its last packet
-						sendToGuesser( packet.getAddress().getHostAddress(), message );
-					}
-					else{
-						guesserInfo.increaseOldMessages();
-					}
-
-					continue;
-				}
-				else{
-					guesserInfo.setPktNumber( msg_pkt_number );
-					//players.put( guesser, guesserInfo );
 				}
-				
-				/*if((pkt_number = players_pkt_number.get( guesser )) == null)
-					players_pkt_number.put( guesser, pkt_number = 0 );
-
-				if(pkt_number >= msg_pkt_number)
-					// this is an old message sent by ack timeout, then it must be discarded
+				else if(reply != Message.PARTIAL_RESULT)
 					continue;
-				else
-					players_pkt_number.put( guesser, msg_pkt_number );*/
-
-				char c = decryptMessage( msg, "letter" ).toLowerCase().charAt( 0 );
-				// updates the current state ONLY if the character is selected for the first time
-				if(!char_used.contains( c )){
-					if(!gw.checkCharacter( c ))
-						trials--;
 
-					char_used.add( c );
-				}
+				// multicast send, which acknowledges the packets of the guesser
+				sendMessage( Message.PARTIAL_RESULT, round.getLetter(), round.getGuesser(), round.getAck(), round.getAckMask(), round.getPartial() );
 
-				// multicast send
-				JSONObject message = createMessage( Message.PARTIAL_RESULT, c + "", guesser, gw.getPartialWord() );
-				send( message );
+				System.out.println( "<prompt>:: STATUS: " + round.getPartialWord() + " / " + round.getWord() + ", TRIALS: " + round.getTrials() + "/" + GameRound.MAX_TRIALS );
 
-				System.out.println( "<prompt>:: STATUS: " + gw.getPartialWord() + " / " + gw.getWord() + ", TRIALS: " + trials + "/" + MAX_TRIALS );
+				switch( round.getResult() ){
+					case( Message.GUESSER_WIN ):
+						timer.cancel();
+						sendMessage( Message.GUESSER_WIN, (char) 0, round.getGuesser(), 0, 0, null );
+						finish = true;
+						System.out.println( "<prompt>:: USER " + round.getGuesser() + " HAS WIN" );
+						break;
 
-				if(gw.isGuessed()){
-					timer.stop();
-					message = createMessage( Message.GUESSER_WIN, null, guesser, null );
-					send( message );
-					finish = true;
-					System.out.println( "<prompt>:: USER " + guesser + " HAS WIN" );
-				}
-				else{
-					if(trials == 0){
-						timer.stop();
-						message = createMessage( Message.END_OF_TRIALS, null, null, null );
-						send( message );
+					case( Message.END_OF_TRIALS ):
+						timer.cancel();
+						sendMessage( Message.END_OF_TRIALS, (char) 0, null, 0, 0, null );
 						finish = true;
 						System.out.println( "<prompt>:: YOU HAVE WIN" );
-					}
+						break;
 				}
 			}
 		}catch( IOException e ){
@@ -280,29 +225,49 @@ public class Master extends Player
 		in_game = false;
 	}
 
-	/** create a new JSON UDP message
-	 * 
-	 * @param type		type of the message
-	 * @param letter	played letter
-	 * @param guesser	guesser username
-	 * @param word		current state of the guess word
-	*/
-	@SuppressWarnings("unchecked")
-	private JSONObject createMessage( final char type, final String letter, final String guesser, final String word )
+	/** follow the game run by the server: the master only receives the results */
+	private void watchGame()
 	{
-		JSONObject object = new JSONObject();
+		System.out.println( "THE MATCH IS STARTED, THE GAME IS RUN BY THE SERVER" );
 
-		object.put( "type", ENCRYPTOR.encrypt( type + "" ) );
-		if(type == Message.PARTIAL_RESULT){
-			object.put( "letter", ENCRYPTOR.encrypt( letter ) );
-			object.put( "guesser", ENCRYPTOR.encrypt( guesser ) );
-			object.put( "word", ENCRYPTOR.encrypt( word ) );
-		}
-		else{
-			if(type == Message.GUESSER_WIN)
-				object.put( "guesser", ENCRYPTOR.encrypt( guesser ) );
+		try{
+			m_socket = join( port, m_address );
+
+			// used to close the worker-side TCP connection
+			sendRequest( Message.START_MATCH, "" );
+			closeTCPConnection();
+
+			boolean finish = false;
+			while(!finish){
+				System.out.print( "<prompt>:: " );
+
+				GamePacket msg = receive( 0 );
+				switch( msg.getType() ){
+					case( Message.PARTIAL_RESULT ):
+						System.out.println( "<prompt>:: STATUS: " + msg.getWord() + " / " + round.getWord() + ", GUESSER: " + msg.getGuesser() );
+						break;
+
+					case( Message.GUESSER_WIN ):
+						System.out.println( "<prompt>:: USER " + msg.getGuesser() + " HAS WIN" );
+						finish = true;
+						break;
+
+					case( Message.END_OF_TRIALS ):
+						System.out.println( "<prompt>:: YOU HAVE WIN" );
+						finish = true;
+						break;
+
+					case( Message.TIMEOUT ):
+						System.out.println( "<prompt>:: THE TIME IS OVER. YOU HAVE WIN" );
+						finish = true;
+						break;
+				}
+			}
+		}catch( IOException e ){
+			e.printStackTrace();
 		}
 
-		return object;
+		closeUDPConnection();
+		in_game = false;
 	}
 }
\ No newline at end of file
@@ -4,26 +4,26 @@
 
 package hangman.client;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.MulticastSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.util.Scanner;
 
-import org.jasypt.util.text.BasicTextEncryptor;
-import org.json.simple.JSONObject;
-
+import hangman.utils.GamePacket;
+import hangman.utils.LobbyCodec;
+import hangman.utils.LobbyMessage;
+import hangman.utils.MatchCipher;
 import hangman.utils.Message;
+import hangman.utils.MulticastTransport;
+import hangman.utils.TimerWheel;
 
 public abstract class Player extends Thread
 {
@@ -34,9 +34,11 @@ public abstract class Player extends Thread
 	/* number of users nedded to start a match */
 	protected int customers;
 	/* socket input interface */
-	protected ObjectInputStream in;
+	protected DataInputStream in;
 	/* socket output interface */
-	protected PrintWriter out;
+	protected DataOutputStream out;
+	/* buffer used to encode the TCP frames */
+	private ByteBuffer frame;
 	/* the TCP socket */
 	protected Socket socket;
 	/* state of the match */
@@ -45,25 +47,38 @@ public abstract class Player extends Thread
 	protected boolean closed_external = true;
 	/* determines if the user is playing */
 	protected boolean in_game = false;
-	/* the UDP multicast socket */
-	protected MulticastSocket m_socket;
+	/* the UDP multicast transport */
+	protected MulticastTransport m_socket;
 	/* multicast address */
 	protected InetAddress m_address;
-	/* last received packet */
-	protected DatagramPacket packet;
+	/* sender of the last received packet */
+	protected SocketAddress sender;
 	/* server UDP port */
 	protected int port;
 	/* cryptographic key */
 	protected String key;
+	/* identifier of the match inside the multicast group */
+	protected int match_id;
+
+	/* last decoded UDP message, which gives a slot to each guesser of the match */
+	private GamePacket received;
+	/* UDP message filled and sent by sendMessage, under the lock of the player */
+	private GamePacket outgoing = new GamePacket();
+	/* buffer used to encode the UDP messages */
+	private ByteBuffer encode_buffer = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE );
+	/* buffer of the encrypted UDP message to send */
+	private ByteBuffer send_buffer = ByteBuffer.allocateDirect( MAX_BUFFER_SIZE );
+	/* buffer of the decrypted UDP message */
+	private ByteBuffer decode_buffer = ByteBuffer.allocate( MAX_BUFFER_SIZE );
+	/* cipher context of the current match */
+	protected MatchCipher cipher;
 
-	/* the encryptor */
-	protected static final BasicTextEncryptor ENCRYPTOR = new BasicTextEncryptor();
 	/* state of the match */
 	protected static final int WAIT_MATCH = 0, START_MATCH = 1;
 	/* timer duration of the match (5 minutes) */
 	protected static final int TIME_MATCH = 300000;
 	/* maximum number of bytes for a UDP message */
-	protected static final int MAX_BUFFER_SIZE = 65536;
+	protected static final int MAX_BUFFER_SIZE = GamePacket.MAX_PACKET_SIZE + MatchCipher.OVERHEAD;
 
 	/** create a new instance of the player
 	 * 
@@ -79,11 +94,16 @@ public abstract class Player extends Thread
 		master = master_username;
 
 		this.socket = socket;
-		in = new ObjectInputStream( socket.getInputStream() );
-		out = new PrintWriter( socket.getOutputStream(), true );
+		in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+		out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+		frame = ByteBuffer.allocate( LobbyCodec.MAX_FRAME_SIZE );
+		received = (customers > 0) ? new GamePacket( customers ) : new GamePacket();
+
+		LobbyCodec.readStreamHeader( in );
 
-		// send the hello message containing the own username (the Worker doesn't know it)
-		out.println( Message.HELLO + username );
+		// the hello message contains the own username (the Worker doesn't know it) and the protocol version;
+		// it is buffered and sent together with the first request
+		out.write( (LobbyCodec.helloMessage( username ) + "\n").getBytes() );
 
 		state = WAIT_MATCH;
 	}
@@ -97,12 +117,35 @@ public abstract class Player extends Thread
 		return in_game;
 	}
 
+	/** send a request to the server
+	 * 
+	 * @param type		type of the request
+	 * @param argument	argument of the request
+	*/
+	protected synchronized void sendRequest( final char type, final String argument ) throws IOException
+	{
+		frame.clear();
+		LobbyCodec.encodeRequest( frame, type, argument );
+		out.write( frame.array(), 0, frame.position() );
+		out.flush();
+	}
+
+	/** receive a message from the server
+	 * 
+	 * @return the message, null if the connection is closed
+	*/
+	protected LobbyMessage receiveMessage() throws IOException
+	{
+		return LobbyCodec.readMessage( in, new byte[LobbyCodec.MAX_FRAME_SIZE] );
+	}
+
 	/** close the TCP connection */
 	protected void closeTCPConnection()
 	{
 		try{ in.close(); }
 		catch( IOException e ){}
-		out.close();
+		try{ out.close(); }
+		catch( IOException e ){}
 		try{ socket.close(); }
 		catch( IOException e ){}
 	}
@@ -112,97 +155,152 @@ public abstract class Player extends Thread
 	 * @param port			the selected port
 	 * @param m_address		the multicast address
 	*/
-	protected MulticastSocket join( final int port, final InetAddress m_address ) throws UnknownHostException, IOException, SocketException
+	protected MulticastTransport join( final int port, final InetAddress m_address ) throws IOException
 	{
-		MulticastSocket socket = new MulticastSocket( port );
-		socket.setLoopbackMode( true );
-
-		// interface used for the multicast
-		InetAddress iface = InetAddress.getByName( InetAddress.getLocalHost().getHostAddress() );
-		socket.setInterface( iface );
-		socket.joinGroup( m_address );
+		return new MulticastTransport( m_address, port, MAX_BUFFER_SIZE );
+	}
 
-		return socket;
+	/** derive the cipher of the match from its key; it must be invoked once the START_MATCH message is received */
+	protected void initCipher() throws IOException
+	{
+		try{
+			cipher = new MatchCipher( key, match_id );
+		}catch( GeneralSecurityException e ){
+			throw new IOException( "unable to initialize the cipher", e );
+		}
 	}
 
-	/** decrypt the message in the specified field
+	/** receive a new UDP message; the packets which are not valid are discarded
 	 * 
-	 * @param message	message object
-	 * @param field		field to decrypt
+	 * @param amount_of_time	0 if the receive must be blocking, > 0 to wait for the specified amount ot time
+	 * 
+	 * @return the message (overwritten by the next call), if the time is not over, null otherwise
 	*/
-	protected String decryptMessage( final JSONObject message, final String field )
+	protected GamePacket receive( final int amount_of_time ) throws IOException
 	{
-		String value = (String) message.get( field );
-		return ENCRYPTOR.decrypt( value );
+		while(true){
+			ByteBuffer buffer = m_socket.receive( amount_of_time );
+			if(buffer == null)
+				return null;
+
+			sender = m_socket.getSender();
+
+			decode_buffer.clear();
+			boolean valid = cipher.decrypt( buffer, decode_buffer );
+			m_socket.release( buffer );
+
+			if(valid){
+				decode_buffer.flip();
+				if(received.decode( decode_buffer ))
+					return received;
+			}
+		}
 	}
 
-	/** receive a new UDP message
+	/** encode and encrypt a message in the send buffer (the lock must be held)
 	 * 
-	 * @param amount_of_time	0 if the receive must be blocking, > 0 to wait for the specified amount ot time
-	 * 
-	 * @return the message, if the time is not over, null otherwise
+	 * @param message	the message
 	*/
-	protected JSONObject receive( final int amount_of_time ) throws IOException, ClassNotFoundException
+	private void encrypt( final GamePacket message ) throws IOException
 	{
-		byte buffer[] = new byte[MAX_BUFFER_SIZE];
-		packet = new DatagramPacket( buffer, MAX_BUFFER_SIZE );
-		m_socket.setSoTimeout( amount_of_time );
-		try{ m_socket.receive( packet ); }
-		catch( SocketTimeoutException e ){ return null; }
-		//buffer = ENCRYPTOR.decrypt( new String( packet.getData() ) ).getBytes();
-		//JSONObject message = new JSONObject( buffer );
-		//return message;
-
-		ByteArrayInputStream baos = new ByteArrayInputStream( buffer );
-		ObjectInputStream oos = new ObjectInputStream( baos );
-
-		return (JSONObject) oos.readObject();
+		encode_buffer.clear();
+		message.encode( encode_buffer );
+		encode_buffer.flip();
+
+		send_buffer.clear();
+		try{
+			cipher.encrypt( encode_buffer, send_buffer );
+		}catch( GeneralSecurityException e ){
+			throw new IOException( "unable to encrypt the message", e );
+		}
+		send_buffer.flip();
 	}
 
 	/** send a new message over the UDP socket
 	 * 
 	 * @param message	message to send
 	*/
-	protected void send( final JSONObject message ) throws IOException
+	protected synchronized void send( final GamePacket message ) throws IOException
 	{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ObjectOutputStream oos = new ObjectOutputStream( baos );
-		oos.writeObject( message );
-		oos.flush();
-
-		//byte buffer[] = ENCRYPTOR.encrypt( message.toString() ).getBytes();
-		byte buffer[] = baos.toByteArray();
-		packet = new DatagramPacket( buffer, buffer.length, m_address, port );
-		m_socket.send( packet );
+		encrypt( message );
+		m_socket.send( send_buffer );
 	}
 
 	/** send a message only to the specified user
 	 * 
-	 * @param address	receiver IP address
+	 * @param receiver	receiver address, as returned by the receive of its packet
 	 * @param message	message to send
 	*/
-	protected void sendToGuesser( final String address, final JSONObject message ) throws IOException
-	{        
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ObjectOutputStream oos = new ObjectOutputStream( baos );
-		oos.writeObject( message );
-		oos.flush();
-
-		byte buffer[] = baos.toByteArray();
-		packet = new DatagramPacket( buffer, buffer.length, InetAddress.getByName( address ), port );
-		DatagramSocket socket = new DatagramSocket();
-        socket.send( packet );
-        socket.close();
+	protected synchronized void sendToGuesser( final SocketAddress receiver, final GamePacket message ) throws IOException
+	{
+		encrypt( message );
+		m_socket.reply( send_buffer, receiver );
+	}
+
+	/** fill a message with the specified content and send it over the UDP socket, as a single step:
+	 *  the threads of the player (game loop, timer and input) share the same message
+	 * 
+	 * @param type		type of the message
+	 * @param letter	played letter, 0 if not significant
+	 * @param guesser	guesser username, null if not significant
+	 * @param ack		last letter of the guesser received with all the previous ones, 0 if not significant
+	 * @param ack_mask	letters of the guesser received after the ack, 0 if not significant
+	 * @param word		current state of the guess word, null if not significant
+	*/
+	protected synchronized void sendMessage( final char type, final char letter, final String guesser,
+											 final int ack, final int ack_mask, final CharSequence word ) throws IOException
+	{
+		outgoing.set( type, letter, guesser, 0, word );
+		outgoing.setAck( ack, ack_mask );
+		send( outgoing );
+	}
+
+	/** fill a message with the specified content and send it only to the specified user, as a single step
+	 * 
+	 * @param receiver	receiver address, as returned by the receive of its packet
+	 * @param type		type of the message
+	 * @param letter	played letter, 0 if not significant
+	 * @param guesser	guesser username, null if not significant
+	 * @param ack		last letter of the guesser received with all the previous ones, 0 if not significant
+	 * @param ack_mask	letters of the guesser received after the ack, 0 if not significant
+	 * @param word		current state of the guess word, null if not significant
+	*/
+	protected synchronized void sendMessageToGuesser( final SocketAddress receiver, final char type, final char letter, final String guesser,
+													  final int ack, final int ack_mask, final CharSequence word ) throws IOException
+	{
+		outgoing.set( type, letter, guesser, 0, word );
+		outgoing.setAck( ack, ack_mask );
+		sendToGuesser( receiver, outgoing );
 	}
 
 	/** close the UDP connection */
 	protected void closeUDPConnection()
 	{
-		try{ m_socket.leaveGroup( m_address ); }
-		catch( IOException e ){}
 		m_socket.close();
 	}
 
+	/** run a task after a delay on a thread of its own: the tasks of the shared wheel must not block,
+	 *  while the ones closing a match write on the sockets
+	 * 
+	 * @param name		name of the thread
+	 * @param task		the task
+	 * @param delay		the delay, in milliseconds
+	 * 
+	 * @return the handle of the timeout
+	*/
+	protected static TimerWheel.Timeout scheduleBlocking( final String name, final Runnable task, final long delay )
+	{
+		return TimerWheel.getShared().schedule( new Runnable(){
+			@Override
+			public void run()
+			{
+				Thread thread = new Thread( task, name );
+				thread.setDaemon( true );
+				thread.start();
+			}
+		}, delay );
+	}
+
 	/** the user input is processed here according to the application state
 	 * 
 	 * @param scan		input scanner
@@ -211,5 +309,5 @@ public abstract class Player extends Thread
 	public abstract void inputManagement( final Scanner scan, final String input ) throws SocketException, IOException;
 
 	/** play section */
-	protected abstract void playGame() throws IOException, ClassNotFoundException;
+	protected abstract void playGame() throws IOException;
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.client;
+
+/** Round trip time towards the master, which gives the retransmission timeout of the letters (as in RFC 6298).
+ *  Every sample updates the smoothed round trip time and its variation; every retransmission doubles the timeout
+ *  until the next sample, and the timeout is always kept between MIN_TIMEOUT and MAX_TIMEOUT
+*/
+public class RoundTripEstimator
+{
+	/* smoothed round trip time, in nanoseconds, 0 until the first sample */
+	private long srtt = 0;
+	/* variation of the round trip time, in nanoseconds */
+	private long rttvar = 0;
+	/* retransmission timeout, in milliseconds */
+	private int timeout;
+	/* number of samples */
+	private long samples = 0;
+	/* number of retransmissions */
+	private long retransmissions = 0;
+
+	/* minimum retransmission timeout, in milliseconds */
+	private static final int MIN_TIMEOUT = 20;
+	/* maximum retransmission timeout, in milliseconds */
+	private static final int MAX_TIMEOUT = 5000;
+	/* granularity of the timer, in nanoseconds */
+	private static final long GRANULARITY = 1000000;
+
+	/** create the estimator
+	 *
+	 * @param initial_timeout	timeout used until the first sample, in milliseconds
+	*/
+	public RoundTripEstimator( final int initial_timeout )
+	{
+		timeout = bound( initial_timeout );
+	}
+
+	/** record the round trip time of a letter, which must not be retransmitted (Karn's algorithm)
+	 *
+	 * @param nanos		the round trip time, in nanoseconds
+	*/
+	public synchronized void sample( final long nanos )
+	{
+		if(samples++ == 0){
+			srtt = nanos;
+			rttvar = nanos / 2;
+		}
+		else{
+			rttvar += (Math.abs( srtt - nanos ) - rttvar) / 4;
+			srtt += (nanos - srtt) / 8;
+		}
+
+		// the timeout is recomputed, dropping the backoff
+		long rto = srtt + Math.max( GRANULARITY, 4 * rttvar );
+		timeout = bound( (rto + 999999) / 1000000 );
+	}
+
+	/** double the timeout after a retransmission
+	 *
+	 * @return the new timeout, in milliseconds
+	*/
+	public synchronized int backoff()
+	{
+		retransmissions++;
+		timeout = bound( 2L * timeout );
+
+		return timeout;
+	}
+
+	/** return the retransmission timeout, in milliseconds */
+	public synchronized int getTimeout()
+	{
+		return timeout;
+	}
+
+	/** return the smoothed round trip time, in nanoseconds, 0 if there are no samples */
+	public synchronized long getSmoothedRtt()
+	{
+		return srtt;
+	}
+
+	/** return the variation of the round trip time, in nanoseconds */
+	public synchronized long getRttVariation()
+	{
+		return rttvar;
+	}
+
+	/** return the number of samples */
+	public synchronized long getSamples()
+	{
+		return samples;
+	}
+
+	/** return the number of retransmissions */
+	public synchronized long getRetransmissions()
+	{
+		return retransmissions;
+	}
+
+	/** keep a timeout between the bounds
+	 *
+	 * @param millis	the timeout, in milliseconds
+	*/
+	private static int bound( final long millis )
+	{
+		return (int) Math.max( MIN_TIMEOUT, Math.min( MAX_TIMEOUT, millis ) );
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "srtt " + srtt / 1000000.0 + " ms, rttvar " + rttvar / 1000000.0 + " ms, rto " + timeout +
+			   " ms, samples " + samples + ", retransmissions " + retransmissions;
+	}
+}
\ No newline at end of file
@@ -6,6 +6,9 @@ package hangman.client;
 
 import hangman.server.IRemoteServer;
 import hangman.utils.HelpMessage;
+import hangman.utils.LobbyChanges;
+import hangman.utils.LobbySnapshot;
+import hangman.utils.LobbyUpdate;
 import hangman.utils.Message;
 
 import java.io.FileNotFoundException;
@@ -17,6 +20,8 @@ import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Scanner;
 
 import org.json.simple.JSONObject;
@@ -29,6 +34,12 @@ public class UserAgent extends UnicastRemoteObject implements IRemoteClient
 	private IRemoteServer remote_obj;
 	/* own username and password */
 	private String username, password;
+	/* local copy of the open matches, indexed by master */
+	private LinkedHashMap<String, LobbyUpdate> lobby = new LinkedHashMap<String, LobbyUpdate>();
+	/* sequence number of the last change applied to the local copy */
+	private long lobby_sequence = -1;
+	/* determines if some change may have been lost while playing */
+	private boolean lobby_stale = false;
 
 	/* maximum number of attempts to guess the account's password */
 	private static final int MAX_TRIALS = 3;
@@ -107,6 +118,9 @@ public class UserAgent extends UnicastRemoteObject implements IRemoteClient
 			System.out.println( "<prompt>:: TYPE help FOR COMMANDS LIST" );
 
 			try{
+				// from now on the server sends only the changes of the lobby
+				loadLobby( -1 );
+
 				matchMaking( serverIP, Integer.parseInt( (String) (obj.get( "TCP Port" ) ) ) );
 			}catch( IOException e ){
 				System.out.println( "<prompt>:: THE SERVER IS NOT REACHABLE" );
@@ -171,6 +185,8 @@ public class UserAgent extends UnicastRemoteObject implements IRemoteClient
 			int result = remote_obj.registerAccount( username, password, this );
 			if(result == Message.ACCOUNT_ALREADY_REGISTERED) // due to a race condition
 				System.out.println( "<prompt>:: THE SELECTED ACCOUNT HAS BEEN ALREADY REGISTERED. TRY WITH ANOTHER ONE" );
+			else if(result == Message.SERVER_FULL)
+				System.out.println( "<prompt>:: ACCOUNT CREATED, BUT THE SERVER IS UNABLE TO HANDLE YOUR REQUEST" );
 			else{
 				if(result == Message.SERVER_ERROR)
 					System.out.println( "<prompt>:: AN ERROR IS OCCURED IN THE SERVER" );
@@ -245,6 +261,7 @@ public class UserAgent extends UnicastRemoteObject implements IRemoteClient
 
 							player = new Master( customers, socket, username, word );
 							player.start();
+							lobby_stale = true;
 						}
 					}
 					catch( NumberFormatException e ){
@@ -260,11 +277,17 @@ public class UserAgent extends UnicastRemoteObject implements IRemoteClient
 
 					player = new Guesser( socket, command.substring( command.lastIndexOf( ' ' ) + 1 ), username );
 					player.start();
+					lobby_stale = true;
 				}
 			}
 			else if(command.equals( "list matches" )){
-				remote_obj.getMatches( this );
-				continue;
+				// the server doesn't send the changes to the players, so the copy is reloaded after a match
+				if(lobby_stale){
+					loadLobby( lobby_sequence );
+					lobby_stale = false;
+				}
+
+				printLobby();
 			}
 			else if(command.equals( "delete account" )){
 				System.out.print( "<prompt>:: DO YOU REALLY WANT TO DELETE THE ACCOUNT? (Y or N): " );
@@ -300,4 +323,75 @@ public class UserAgent extends UnicastRemoteObject implements IRemoteClient
 
 		System.out.print( "<prompt>:: " );
 	}
+
+	@Override
+	public synchronized void updateLobby( final LobbyChanges changes ) throws RemoteException
+	{
+		// the changes are already contained in the local copy
+		if(changes.getLast() <= lobby_sequence)
+			return;
+
+		if(changes.isComplete()){
+			// the server sends the whole lobby
+			lobby.clear();
+			LobbyUpdate matches[] = changes.getUpdates();
+			for(int i = 0; i < matches.length; i++)
+				lobby.put( matches[i].getMaster(), matches[i] );
+
+			lobby_sequence = changes.getLast();
+		}
+		else if(changes.getFirst() <= lobby_sequence + 1){
+			// every update carries the whole state of its match, so the ones already applied can be skipped
+			LobbyUpdate updates[] = changes.getUpdates();
+			for(int i = 0; i < updates.length; i++){
+				if(updates[i].getSequence() > lobby_sequence){
+					if(updates[i].getType() == Message.MATCH_REMOVED)
+						lobby.remove( updates[i].getMaster() );
+					else
+						lobby.put( updates[i].getMaster(), updates[i] );
+				}
+			}
+
+			lobby_sequence = changes.getLast();
+		}
+		else{
+			// some change is lost: the whole lobby is requested again
+			loadLobby( -1 );
+		}
+
+		System.out.println( "<prompt>:: LOADING THE LIST OF MATCHES..." );
+		printLobby();
+
+		System.out.print( "<prompt>:: " );
+	}
+
+	/** replace the local copy of the lobby with the current one of the server
+	 * 
+	 * @param sequence	sequence number of the local copy, -1 to load the lobby anyway
+	*/
+	private synchronized void loadLobby( final long sequence ) throws RemoteException
+	{
+		LobbySnapshot snapshot = remote_obj.getLobby( username, sequence );
+		if(snapshot == null)
+			// the local copy is up to date
+			return;
+
+		lobby.clear();
+		LobbyUpdate matches[] = snapshot.getMatches();
+		for(int i = 0; i < matches.length; i++)
+			lobby.put( matches[i].getMaster(), matches[i] );
+
+		lobby_sequence = snapshot.getSequence();
+	}
+
+	/** print the local copy of the lobby */
+	private synchronized void printLobby()
+	{
+		System.out.println( "   " + lobby.size() + " OPEN MATCHES" );
+
+		int i = 0;
+		Iterator<LobbyUpdate> it = lobby.values().iterator();
+		while(it.hasNext())
+			System.out.println( "   MATCH " + (++i) + ": " + it.next().toString() );
+	}
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/** One-time conversion of the JSON accounts file into the AccountIndex.
+ *  The index is built aside and renamed only when it is complete, so an interrupted import is started again.
+ *  It is run by the server when the index doesn't exist, or by hand:
+ *
+ *    java hangman.server.AccountImporter accounts.json accounts.idx
+*/
+public class AccountImporter
+{
+	public static void main( final String argv[] ) throws FileNotFoundException, IOException, ParseException
+	{
+		if(argv.length != 2){
+			System.out.println( "INVALID NUMBER OF ARGUMENTS" );
+			System.out.println( "USAGE: java hangman.server.AccountImporter <JSON accounts> <account index>" );
+			return;
+		}
+
+		importAccounts( argv[0], argv[1] );
+	}
+
+	/** build the index from the JSON accounts
+	 *
+	 * @param json		path of the JSON accounts
+	 * @param index		path of the index, which must not exist
+	 *
+	 * @return the number of imported accounts
+	*/
+	@SuppressWarnings("unchecked")
+	public static int importAccounts( final String json, final String index ) throws FileNotFoundException, IOException, ParseException
+	{
+		FileReader reader = new FileReader( json );
+		JSONObject accounts = (JSONObject) new JSONParser().parse( reader );
+		reader.close();
+
+		Path tmp = Paths.get( index + ".import" );
+		Files.deleteIfExists( tmp );
+		AccountIndex imported = new AccountIndex( tmp.toString() );
+
+		int n_accounts = 0;
+		for(Map.Entry<String, String> account : ((Map<String, String>) accounts).entrySet()){
+			if(imported.put( account.getKey(), account.getValue() ) == 0)
+				n_accounts++;
+			else
+				System.out.println( "[ACCOUNTS]: ACCOUNT " + account.getKey() + " NOT IMPORTED, TOO LONG" );
+		}
+
+		imported.force();
+		Files.move( tmp, Paths.get( index ), StandardCopyOption.ATOMIC_MOVE );
+
+		System.out.println( "[ACCOUNTS]: " + n_accounts + " ACCOUNTS IMPORTED FROM " + json );
+
+		return n_accounts;
+	}
+}
\ No newline at end of file
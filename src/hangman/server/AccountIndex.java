@@ -0,0 +1,400 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** Hash index of the accounts, stored in a memory-mapped file, so the accounts live outside the heap
+ *  and opening the index doesn't depend on their number.
+ *  The file is a header followed by a table of fixed-size slots with open addressing and linear probing:
+ *
+ *    state (4 bytes) | hash (4 bytes) | username length (1 byte) | password length (1 byte) | unused (2 bytes) |
+ *    username (MAX_USERNAME bytes) | password (MAX_PASSWORD bytes)
+ *
+ *  A slot goes only from empty to used and from used to deleted, and its state is published after its content:
+ *  the lookups don't take any lock. The deleted slots are reclaimed when the table is rebuilt into a new file.
+ *  The changes must be serialized by the caller; they reach the disk when force() is invoked
+*/
+public class AccountIndex
+{
+	/* path of the file */
+	private Path path;
+	/* current table */
+	private volatile Table table;
+
+	/** maximum size of an encoded username */
+	public static final int MAX_USERNAME = 64;
+	/** maximum size of an encoded password */
+	public static final int MAX_PASSWORD = 52;
+
+	/* size of a slot, a divisor of the page size so a slot is never split between two pages */
+	private static final int SLOT_SIZE = 128;
+	/* size of the header */
+	private static final int HEADER_SIZE = SLOT_SIZE;
+	/* identifier of the file format */
+	private static final int MAGIC = 0x48414343;
+	/* initial number of slots */
+	private static final int MIN_CAPACITY = 1024;
+	/* maximum number of slots, so the file can be mapped at once */
+	private static final int MAX_CAPACITY = 1 << 23;
+	/* states of a slot */
+	private static final int EMPTY = 0, USED = 1, DELETED = 2;
+	/* offsets of the fields of a slot */
+	private static final int HASH = 4, USER_LENGTH = 8, PWD_LENGTH = 9, USERNAME = 12, PASSWORD = USERNAME + MAX_USERNAME;
+	/* offsets of the fields of the header */
+	private static final int CAPACITY = 4, N_USED = 8, N_DELETED = 12;
+	/* ordered access to the states */
+	private static final VarHandle STATE = MethodHandles.byteBufferViewVarHandle( int[].class, ByteOrder.nativeOrder() );
+
+	/** open an index, creating it if it doesn't exist
+	 *
+	 * @param path	path of the file
+	*/
+	public AccountIndex( final String path ) throws IOException
+	{
+		this.path = Paths.get( path );
+
+		if(Files.exists( this.path ))
+			table = new Table( this.path );
+		else{
+			table = new Table( this.path, MIN_CAPACITY );
+			table.buffer.force();
+		}
+	}
+
+	/** return the number of accounts */
+	public int size()
+	{
+		return table.used;
+	}
+
+	/** return the password of an account
+	 *
+	 * @param username	the username
+	 *
+	 * @return the password, null if the account doesn't exist
+	*/
+	public String get( final String username )
+	{
+		byte user[] = username.getBytes( StandardCharsets.UTF_8 );
+		if(user.length > MAX_USERNAME)
+			return null;
+
+		Table current = table;
+		int slot = current.find( user, hash( user ) );
+		if(slot == -1)
+			return null;
+
+		int offset = Table.offset( slot );
+		byte pwd[] = new byte[current.buffer.get( offset + PWD_LENGTH ) & 0xFF];
+		read( current.buffer, offset + PASSWORD, pwd );
+
+		return new String( pwd, StandardCharsets.UTF_8 );
+	}
+
+	/** check if an account fits in a slot
+	 *
+	 * @param username	the username
+	 * @param password	the password
+	*/
+	public static boolean fits( final String username, final String password )
+	{
+		return username.getBytes( StandardCharsets.UTF_8 ).length <= MAX_USERNAME &&
+			   password.getBytes( StandardCharsets.UTF_8 ).length <= MAX_PASSWORD;
+	}
+
+	/** add an account
+	 *
+	 * @param username	the username
+	 * @param password	the password
+	 *
+	 * @return 0 if the account is added, -1 if it already exists, -2 if it doesn't fit in a slot or the index is full
+	*/
+	public int put( final String username, final String password ) throws IOException
+	{
+		byte user[] = username.getBytes( StandardCharsets.UTF_8 ), pwd[] = password.getBytes( StandardCharsets.UTF_8 );
+		if(user.length > MAX_USERNAME || pwd.length > MAX_PASSWORD)
+			return -2;
+
+		int hash = hash( user );
+		if(table.find( user, hash ) != -1)
+			return -1;
+
+		// the deleted slots count as used, since they are reclaimed only by a new table
+		if((table.used + table.deleted + 1) * 4L > table.capacity * 3L){
+			if(grow() == -1)
+				return -2;
+		}
+
+		Table current = table;
+		int mask = current.capacity - 1;
+		int slot = hash & mask;
+		while((int) STATE.getAcquire( current.buffer, Table.offset( slot ) ) != EMPTY)
+			slot = (slot + 1) & mask;
+
+		current.write( slot, hash, user, pwd );
+		current.setCounters( current.used + 1, current.deleted );
+
+		return 0;
+	}
+
+	/** delete an account
+	 *
+	 * @param username	the username
+	 *
+	 * @return TRUE if the account is deleted, FALSE if it doesn't exist
+	*/
+	public boolean remove( final String username )
+	{
+		byte user[] = username.getBytes( StandardCharsets.UTF_8 );
+		if(user.length > MAX_USERNAME)
+			return false;
+
+		Table current = table;
+		int slot = current.find( user, hash( user ) );
+		if(slot == -1)
+			return false;
+
+		STATE.setRelease( current.buffer, Table.offset( slot ), DELETED );
+		current.setCounters( current.used - 1, current.deleted + 1 );
+
+		return true;
+	}
+
+	/** write the changes to the disk */
+	public void force()
+	{
+		table.buffer.force();
+	}
+
+	/** rebuild the table into a new file, without the deleted slots and with room for the new accounts
+	 *
+	 * @return 0 if everything is ok, -1 if the index is full
+	*/
+	private int grow() throws IOException
+	{
+		Table current = table;
+
+		int capacity = MIN_CAPACITY;
+		while(capacity < MAX_CAPACITY && (current.used + 1) * 2L > capacity)
+			capacity <<= 1;
+		if((current.used + 1) * 4L > capacity * 3L)
+			return -1;
+
+		Path tmp = Paths.get( path + ".tmp" );
+		Files.deleteIfExists( tmp );
+		Table next = new Table( tmp, capacity );
+
+		int mask = capacity - 1;
+		for(int i = 0; i < current.capacity; i++){
+			int offset = Table.offset( i );
+			if((int) STATE.getAcquire( current.buffer, offset ) != USED)
+				continue;
+
+			int hash = current.buffer.getInt( offset + HASH );
+			byte user[] = new byte[current.buffer.get( offset + USER_LENGTH ) & 0xFF];
+			byte pwd[] = new byte[current.buffer.get( offset + PWD_LENGTH ) & 0xFF];
+			read( current.buffer, offset + USERNAME, user );
+			read( current.buffer, offset + PASSWORD, pwd );
+
+			int slot = hash & mask;
+			while((int) STATE.getAcquire( next.buffer, Table.offset( slot ) ) != EMPTY)
+				slot = (slot + 1) & mask;
+			next.write( slot, hash, user, pwd );
+		}
+
+		next.setCounters( current.used, 0 );
+		next.buffer.force();
+
+		// the lookups still running on the old table find its mapping valid until it is collected
+		Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		table = next;
+
+		System.out.println( "[ACCOUNTS]: INDEX REBUILT WITH " + capacity + " SLOTS" );
+
+		return 0;
+	}
+
+	/** hash of an encoded username (FNV-1a)
+	 *
+	 * @param user	the encoded username
+	*/
+	private static int hash( final byte user[] )
+	{
+		int hash = 0x811C9DC5;
+		for(byte b : user)
+			hash = (hash ^ (b & 0xFF)) * 0x01000193;
+
+		return hash ^ (hash >>> 16);
+	}
+
+	/** copy bytes of the table, without moving the position of the shared buffer
+	 *
+	 * @param buffer	the buffer of the table
+	 * @param index		index of the first byte
+	 * @param dst		destination of the bytes
+	*/
+	private static void read( final ByteBuffer buffer, final int index, final byte dst[] )
+	{
+		ByteBuffer view = buffer.duplicate();
+		view.position( index );
+		view.get( dst );
+	}
+
+	/** copy bytes into the table, without moving the position of the shared buffer
+	 *
+	 * @param buffer	the buffer of the table
+	 * @param index		index of the first byte
+	 * @param src		the bytes
+	*/
+	private static void write( final ByteBuffer buffer, final int index, final byte src[] )
+	{
+		ByteBuffer view = buffer.duplicate();
+		view.position( index );
+		view.put( src );
+	}
+
+	/** mapped table of the slots */
+	private static class Table
+	{
+		/* the mapped file */
+		private final MappedByteBuffer buffer;
+		/* number of slots */
+		private final int capacity;
+		/* number of used slots */
+		private volatile int used;
+		/* number of deleted slots */
+		private int deleted;
+
+		/** map an existing file
+		 *
+		 * @param path	path of the file
+		*/
+		public Table( final Path path ) throws IOException
+		{
+			FileChannel channel = FileChannel.open( path, StandardOpenOption.READ, StandardOpenOption.WRITE );
+			try{
+				if(channel.size() < HEADER_SIZE)
+					throw new IOException( "invalid account index " + path );
+
+				buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, channel.size() );
+			}finally{
+				channel.close();
+			}
+
+			capacity = buffer.getInt( CAPACITY );
+			if(buffer.getInt( 0 ) != MAGIC || Integer.bitCount( capacity ) != 1 || offset( capacity ) != buffer.capacity())
+				throw new IOException( "invalid account index " + path );
+
+			used = buffer.getInt( N_USED );
+			deleted = buffer.getInt( N_DELETED );
+		}
+
+		/** create a new file
+		 *
+		 * @param path		path of the file
+		 * @param capacity	number of slots, a power of 2
+		*/
+		public Table( final Path path, final int capacity ) throws IOException
+		{
+			this.capacity = capacity;
+
+			FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE );
+			try{
+				buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, offset( capacity ) );
+			}finally{
+				channel.close();
+			}
+
+			buffer.putInt( 0, MAGIC );
+			buffer.putInt( CAPACITY, capacity );
+			setCounters( 0, 0 );
+		}
+
+		/** return the position of a slot
+		 *
+		 * @param slot	index of the slot
+		*/
+		public static int offset( final int slot )
+		{
+			return HEADER_SIZE + slot * SLOT_SIZE;
+		}
+
+		/** find the slot of an account
+		 *
+		 * @param user	the encoded username
+		 * @param hash	hash of the username
+		 *
+		 * @return the index of the slot, -1 if the account doesn't exist
+		*/
+		public int find( final byte user[], final int hash )
+		{
+			int mask = capacity - 1;
+
+			for(int slot = hash & mask, probes = 0; probes < capacity; slot = (slot + 1) & mask, probes++){
+				int offset = offset( slot );
+				int state = (int) STATE.getAcquire( buffer, offset );
+				if(state == EMPTY)
+					return -1;
+
+				if(state == USED && buffer.getInt( offset + HASH ) == hash && (buffer.get( offset + USER_LENGTH ) & 0xFF) == user.length){
+					int i = 0;
+					while(i < user.length && buffer.get( offset + USERNAME + i ) == user[i])
+						i++;
+					if(i == user.length)
+						return slot;
+				}
+			}
+
+			return -1;
+		}
+
+		/** fill an empty slot and publish it
+		 *
+		 * @param slot	index of the slot
+		 * @param hash	hash of the username
+		 * @param user	the encoded username
+		 * @param pwd	the encoded password
+		*/
+		public void write( final int slot, final int hash, final byte user[], final byte pwd[] )
+		{
+			int offset = offset( slot );
+
+			buffer.putInt( offset + HASH, hash );
+			buffer.put( offset + USER_LENGTH, (byte) user.length );
+			buffer.put( offset + PWD_LENGTH, (byte) pwd.length );
+			AccountIndex.write( buffer, offset + USERNAME, user );
+			AccountIndex.write( buffer, offset + PASSWORD, pwd );
+
+			STATE.setRelease( buffer, offset, USED );
+		}
+
+		/** update the counters of the slots
+		 *
+		 * @param used		number of used slots
+		 * @param deleted	number of deleted slots
+		*/
+		public void setCounters( final int used, final int deleted )
+		{
+			this.used = used;
+			this.deleted = deleted;
+
+			buffer.putInt( N_USED, used );
+			buffer.putInt( N_DELETED, deleted );
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,447 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/** Durable store of the accounts.
+ *  The accounts are kept in the memory-mapped AccountIndex; every change is appended to a journal made of records
+ *
+ *    type (1 byte) | username length (2 bytes) | username | password length (2 bytes) | password | CRC32 (4 bytes)
+ *
+ *  This thread writes the journal: the changes requested while it is syncing the previous batch are collected
+ *  and made durable together by the next write, with a single fsync (group commit).
+ *  The index reaches the disk only at the checkpoints: when the journal is too large it is moved aside,
+ *  and it is deleted in background once the index is synced, while the new changes go to a new journal.
+ *  At startup the journals are replayed on the index; a record torn by a crash ends the replay
+*/
+public class AccountStore extends Thread
+{
+	/* the accounts */
+	private AccountIndex index;
+	/* path of the journal */
+	private Path journal_path;
+	/* path of the journal waiting for the checkpoint */
+	private Path old_journal_path;
+	/* the journal */
+	private FileChannel journal;
+	/* size of the durable part of the journal, in bytes */
+	private long journal_size;
+	/* size of the journal starting a checkpoint, in bytes */
+	private long max_journal_size;
+	/* batch collecting the next changes */
+	private Batch current;
+	/* determines if a checkpoint is running */
+	private volatile boolean checkpointing = false;
+
+	/* mutual exclusion object for the changes of the index and the batch */
+	private final ReentrantLock COMMIT = new ReentrantLock();
+	/* signaled when the batch is not empty */
+	private final Condition PENDING = COMMIT.newCondition();
+	/* signaled when a batch is written */
+	private final Condition COMMITTED = COMMIT.newCondition();
+
+	/* types of the records */
+	private static final byte REGISTER = 'R', DELETE = 'D';
+
+	/** open the accounts
+	 *
+	 * @param index				path of the account index
+	 * @param journal			path of the journal
+	 * @param max_journal_size	size of the journal starting a checkpoint, in bytes
+	*/
+	public AccountStore( final String index, final String journal, final long max_journal_size ) throws IOException
+	{
+		super( "AccountStore" );
+		setDaemon( true );
+
+		journal_path = Paths.get( journal );
+		old_journal_path = Paths.get( journal + ".old" );
+		this.max_journal_size = max_journal_size;
+
+		// the index may hold some changes of the journals, whose records are replayed idempotently
+		this.index = new AccountIndex( index );
+		if(Files.exists( old_journal_path ))
+			replay( old_journal_path, this.index, false );
+		if(Files.exists( journal_path ))
+			replay( journal_path, this.index, true );
+
+		this.journal = openJournal();
+		journal_size = this.journal.size();
+
+		current = new Batch();
+
+		// the checkpoint interrupted by a crash is completed
+		if(Files.exists( old_journal_path ))
+			startCheckpoint();
+	}
+
+	/** return the password of an account
+	 *
+	 * @param username	the username
+	 *
+	 * @return the password, null if the account doesn't exist
+	*/
+	public String get( final String username )
+	{
+		return index.get( username );
+	}
+
+	/** create an account and wait until it is durable
+	 *
+	 * @param username	the username
+	 * @param password	the password
+	 *
+	 * @return 0 if the account is created, -1 if it already exists, -2 if it cannot be saved (also if it is too long)
+	*/
+	public int register( final String username, final String password )
+	{
+		if(!AccountIndex.fits( username, password ))
+			return -2;
+
+		byte record[] = encode( REGISTER, username, password );
+
+		COMMIT.lock();
+
+		int result;
+		try{
+			result = index.put( username, password );
+		}catch( IOException e ){
+			e.printStackTrace();
+			result = -2;
+		}
+
+		if(result != 0){
+			COMMIT.unlock();
+			return result;
+		}
+
+		Batch batch = append( record );
+
+		COMMIT.unlock();
+
+		if(await( batch ) == -1){
+			COMMIT.lock();
+			index.remove( username );
+			COMMIT.unlock();
+			return -2;
+		}
+
+		return 0;
+	}
+
+	/** delete an account and wait until the deletion is durable
+	 *
+	 * @param username	the username
+	 *
+	 * @return 0 if the account doesn't exist anymore, -2 if the deletion cannot be saved
+	*/
+	public int delete( final String username )
+	{
+		byte record[] = encode( DELETE, username, "" );
+
+		COMMIT.lock();
+
+		String password = index.get( username );
+		if(password == null){
+			COMMIT.unlock();
+			return 0;
+		}
+
+		index.remove( username );
+		Batch batch = append( record );
+
+		COMMIT.unlock();
+
+		if(await( batch ) == -1){
+			COMMIT.lock();
+			try{
+				index.put( username, password );
+			}catch( IOException e ){
+				e.printStackTrace();
+			}
+			COMMIT.unlock();
+			return -2;
+		}
+
+		return 0;
+	}
+
+	/** add a record to the current batch (the lock must be held)
+	 *
+	 * @param record	the encoded record
+	 *
+	 * @return the batch containing the record
+	*/
+	private Batch append( final byte record[] )
+	{
+		if(current.size == 0)
+			PENDING.signal();
+
+		current.append( record );
+
+		return current;
+	}
+
+	/** wait until a batch is written
+	 *
+	 * @param batch		the batch
+	 *
+	 * @return 0 if the batch is durable, -1 otherwise
+	*/
+	private int await( final Batch batch )
+	{
+		COMMIT.lock();
+
+		while(batch.status == 0)
+			COMMITTED.awaitUninterruptibly();
+
+		COMMIT.unlock();
+
+		return (batch.status == 1) ? 0 : -1;
+	}
+
+	@Override
+	public void run()
+	{
+		while(true){
+			COMMIT.lock();
+
+			while(current.size == 0)
+				PENDING.awaitUninterruptibly();
+
+			// the next changes go to a new batch, written once this one is synced
+			Batch batch = current;
+			current = new Batch();
+
+			COMMIT.unlock();
+
+			int status = write( batch );
+
+			COMMIT.lock();
+
+			batch.status = (status == 0) ? 1 : -1;
+			COMMITTED.signalAll();
+
+			COMMIT.unlock();
+
+			if(status == 0 && !checkpointing && journal_size >= max_journal_size)
+				rotate();
+		}
+	}
+
+	/** append a batch to the journal and sync it
+	 *
+	 * @param batch		the batch
+	 *
+	 * @return 0 if everything is ok, -1 if some error occurs
+	*/
+	private int write( final Batch batch )
+	{
+		try{
+			if(journal == null){
+				journal = openJournal();
+				journal_size = journal.size();
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap( batch.data, 0, batch.size );
+			while(buffer.hasRemaining())
+				journal.write( buffer );
+			journal.force( false );
+
+			journal_size += batch.size;
+		}catch( IOException e ){
+			e.printStackTrace();
+
+			// the partial batch is removed, so the journal ends with the last durable record
+			try{
+				if(journal != null)
+					journal.truncate( journal_size );
+			}catch( IOException e1 ){}
+
+			return -1;
+		}
+
+		return 0;
+	}
+
+	/** move the journal aside and start a checkpoint; the next changes go to a new journal */
+	private void rotate()
+	{
+		try{
+			// the journal of a failed checkpoint must be deleted before a new one is moved aside
+			if(!Files.exists( old_journal_path )){
+				journal.close();
+				journal = null;
+				Files.move( journal_path, old_journal_path );
+				journal = openJournal();
+				journal_size = 0;
+			}
+		}catch( IOException e ){
+			e.printStackTrace();
+			return;
+		}
+
+		startCheckpoint();
+	}
+
+	/** start a checkpoint in background */
+	private void startCheckpoint()
+	{
+		checkpointing = true;
+
+		new Thread( "AccountCheckpoint" ){
+			@Override
+			public void run()
+			{
+				checkpoint();
+			}
+		}.start();
+	}
+
+	/** sync the index, which contains all the changes of the old journal, then delete the journal */
+	private void checkpoint()
+	{
+		try{
+			index.force();
+			Files.delete( old_journal_path );
+
+			System.out.println( "[ACCOUNTS]: CHECKPOINT OF " + index.size() + " ACCOUNTS" );
+		}catch( IOException e ){
+			e.printStackTrace();
+		}
+
+		checkpointing = false;
+	}
+
+	/** apply the records of a journal
+	 *
+	 * @param path		path of the journal
+	 * @param index		the accounts to change
+	 * @param truncate	TRUE if the torn records at the end of the journal must be removed
+	*/
+	private static void replay( final Path path, final AccountIndex index, final boolean truncate ) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap( Files.readAllBytes( path ) );
+		CRC32 crc = new CRC32();
+
+		int valid = 0;
+		while(buffer.remaining() >= 9){
+			int start = buffer.position();
+
+			byte type = buffer.get();
+			int user_length = buffer.getShort() & 0xFFFF;
+			if(buffer.remaining() < user_length + 6)
+				break;
+			String username = new String( buffer.array(), buffer.position(), user_length, StandardCharsets.UTF_8 );
+			buffer.position( buffer.position() + user_length );
+
+			int pwd_length = buffer.getShort() & 0xFFFF;
+			if(buffer.remaining() < pwd_length + 4)
+				break;
+			String password = new String( buffer.array(), buffer.position(), pwd_length, StandardCharsets.UTF_8 );
+			buffer.position( buffer.position() + pwd_length );
+
+			crc.reset();
+			crc.update( buffer.array(), start, buffer.position() - start );
+			if(buffer.getInt() != (int) crc.getValue())
+				break;
+
+			if(type == REGISTER){
+				String current = index.get( username );
+				if(current != null && !current.equals( password ))
+					index.remove( username );
+				if(!password.equals( current ))
+					index.put( username, password );
+			}
+			else if(type == DELETE)
+				index.remove( username );
+			else
+				break;
+
+			valid = buffer.position();
+		}
+
+		if(valid < buffer.limit()){
+			System.out.println( "[ACCOUNTS]: " + (buffer.limit() - valid) + " TORN BYTES AT THE END OF " + path );
+
+			if(truncate){
+				FileChannel channel = FileChannel.open( path, StandardOpenOption.WRITE );
+				channel.truncate( valid );
+				channel.force( true );
+				channel.close();
+			}
+		}
+	}
+
+	/** open the journal for appending */
+	private FileChannel openJournal() throws IOException
+	{
+		return FileChannel.open( journal_path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+	}
+
+	/** encode a record of the journal
+	 *
+	 * @param type		type of the record
+	 * @param username	the username
+	 * @param password	the password
+	*/
+	private static byte[] encode( final byte type, final String username, final String password )
+	{
+		byte user[] = username.getBytes( StandardCharsets.UTF_8 ), pwd[] = password.getBytes( StandardCharsets.UTF_8 );
+		if(user.length > 0xFFFF || pwd.length > 0xFFFF)
+			throw new IllegalArgumentException( "account too long" );
+
+		ByteBuffer record = ByteBuffer.allocate( 9 + user.length + pwd.length );
+		record.put( type );
+		record.putShort( (short) user.length );
+		record.put( user );
+		record.putShort( (short) pwd.length );
+		record.put( pwd );
+
+		CRC32 crc = new CRC32();
+		crc.update( record.array(), 0, record.position() );
+		record.putInt( (int) crc.getValue() );
+
+		return record.array();
+	}
+
+	/** records made durable by the same write */
+	private static class Batch
+	{
+		/* the encoded records */
+		private byte data[] = new byte[256];
+		/* number of used bytes */
+		private int size = 0;
+		/* 0 while the batch is not written, 1 if it is durable, -1 if the write failed */
+		private int status = 0;
+
+		/** add a record
+		 *
+		 * @param record	the encoded record
+		*/
+		public void append( final byte record[] )
+		{
+			if(size + record.length > data.length){
+				byte new_data[] = new byte[Math.max( data.length * 2, size + record.length )];
+				System.arraycopy( data, 0, new_data, 0, size );
+				data = new_data;
+			}
+
+			System.arraycopy( record, 0, data, size, record.length );
+			size += record.length;
+		}
+	}
+}
\ No newline at end of file
@@ -6,12 +6,24 @@ package hangman.server;
 
 import hangman.client.IRemoteClient;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class ClientInfo
 {
 	/* the callback object */
 	private IRemoteClient callback;
 	/* flag used to manage the status of the client */
 	private boolean in_match = false;
+	/* determines if the client receives the changes of the lobby instead of the whole list */
+	private boolean deltas = false;
+	/* determines if a callback to the client is running */
+	private AtomicBoolean busy = new AtomicBoolean( false );
+	/* determines if an update has been skipped while the callback was running */
+	private volatile boolean missed = false;
+	/* number of consecutive callbacks failed or over the deadline */
+	private int failures = 0;
+	/* moving average of the callbacks' latency, in nanoseconds */
+	private long latency = 0;
 
 	public ClientInfo( final IRemoteClient callback )
 	{
@@ -36,6 +48,24 @@ public class ClientInfo
 		return in_match;
 	}
 
+	/** select how the lobby is sent to the client
+	 * 
+	 * @param flag  TRUE if the client receives the changes, FALSE if the whole list of matches
+	*/
+	public synchronized void setDeltas( final boolean flag )
+	{
+		deltas = flag;
+	}
+
+	/** return how the lobby is sent to the client
+	 * 
+	 * @return TRUE if the client receives the changes, FALSE if the whole list of matches
+	*/
+	public synchronized boolean hasDeltas()
+	{
+		return deltas;
+	}
+
 	/** return the callback object associated to the client
 	 * 
 	 * @return the callback object
@@ -44,4 +74,59 @@ public class ClientInfo
 	{
 		return callback;
 	}
+
+	/** mark the start of a callback; a client with a running callback is skipped
+	 * 
+	 * @return TRUE if the callback can start, FALSE if the previous one is still running
+	*/
+	public boolean startCallback()
+	{
+		while(true){
+			if(busy.compareAndSet( false, true ))
+				return true;
+
+			// the flag is seen by the running callback only if it is set before its end
+			missed = true;
+			if(busy.get())
+				return false;
+		}
+	}
+
+	/** record the end of a callback
+	 * 
+	 * @param elapsed	duration of the callback, in nanoseconds
+	 * @param success	TRUE if the callback has been completed within the deadline, FALSE otherwise
+	 * 
+	 * @return the number of consecutive failed callbacks
+	*/
+	public synchronized int endCallback( final long elapsed, final boolean success )
+	{
+		// exponentially weighted with factor 1/4
+		latency = (latency == 0) ? elapsed : latency + (elapsed - latency) / 4;
+		failures = success ? 0 : failures + 1;
+
+		busy.set( false );
+
+		return failures;
+	}
+
+	/** check if an update has been skipped, clearing the flag
+	 * 
+	 * @return TRUE if the client must receive the whole lobby, FALSE otherwise
+	*/
+	public boolean takeMissed()
+	{
+		if(!missed)
+			return false;
+
+		missed = false;
+
+		return true;
+	}
+
+	/** return the moving average of the callbacks' latency, in nanoseconds */
+	public synchronized long getLatency()
+	{
+		return latency;
+	}
 }
\ No newline at end of file
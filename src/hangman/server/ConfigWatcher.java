@@ -0,0 +1,70 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.Match;
+
+import java.io.File;
+
+/** Thread reloading the server configuration and the channels' settings when their files are modified */
+public class ConfigWatcher extends Thread
+{
+	/* the watched files */
+	private File config, settings;
+	/* last modification times */
+	private long config_time, settings_time;
+
+	/* time between two checks, in milliseconds */
+	private static final long PERIOD = 5000;
+
+	/** create the watcher
+	 * 
+	 * @param config	path of the server configuration
+	 * @param settings	path of the channels' settings
+	*/
+	public ConfigWatcher( final String config, final String settings )
+	{
+		super( "ConfigWatcher" );
+		setDaemon( true );
+
+		this.config = new File( config );
+		this.settings = new File( settings );
+
+		config_time = this.config.lastModified();
+		settings_time = this.settings.lastModified();
+	}
+
+	@Override
+	public void run()
+	{
+		while(true){
+			try{ Thread.sleep( PERIOD ); }
+			catch( InterruptedException e ){ return; }
+
+			long time = config.lastModified();
+			if(time != config_time){
+				config_time = time;
+				try{
+					Registry.reloadConfig();
+					System.out.println( "[CONFIG]: MAX MATCHES " + Registry.max_matches );
+				}catch( Exception e ){
+					// the previous values are kept
+					System.out.println( "[CONFIG]: INVALID CONFIGURATION: " + e.getMessage() );
+				}
+			}
+
+			time = settings.lastModified();
+			if(time != settings_time){
+				settings_time = time;
+				try{
+					Match.reloadChannels();
+					System.out.println( "[CONFIG]: " + Match.getChannels() + " CHANNELS" );
+				}catch( Exception e ){
+					System.out.println( "[CONFIG]: INVALID CHANNELS' SETTINGS: " + e.getMessage() );
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
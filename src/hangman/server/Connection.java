@@ -0,0 +1,276 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.LobbyCodec;
+import hangman.utils.LobbyMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Non-blocking client connection driven by an EventLoop.
+ *  The requests received from the client are handed to the associated Worker,
+ *  the messages written by the lobby are queued as views of the bytes shared among all their receivers,
+ *  and flushed together by the loop thread with a gathering write. The output is bounded: a client which doesn't read
+ *  its messages is disconnected, instead of making the server keep them.
+*/
+class Connection implements IOutputChannel
+{
+	/* the associated channel */
+	private SocketChannel channel;
+	/* the selection key of the channel */
+	private SelectionKey key;
+	/* the loop owning the connection */
+	private EventLoop loop;
+	/* the state machine of the protocol */
+	private Worker worker;
+	/* buffer of the incoming bytes */
+	private ByteBuffer input;
+	/* messages waiting to be sent, views of the bytes shared among their receivers */
+	private ArrayDeque<ByteBuffer> output;
+	/* number of bytes waiting to be sent */
+	private int queued;
+	/* messages passed to a gathering write, reused for every flush */
+	private ByteBuffer gather[];
+	/* protocol spoken by the client */
+	private volatile int version = LobbyCodec.LEGACY;
+	/* determines if the connection must be closed once the output is flushed */
+	private volatile boolean closing = false;
+	/* determines if the connection is closed */
+	private volatile boolean closed = false;
+	/* determines if the output is full, so the client must be disconnected */
+	private volatile boolean overflow = false;
+	/* determines if the connection is waiting to be flushed by the loop */
+	private final AtomicBoolean flush_requested = new AtomicBoolean( false );
+
+	/* maximum number of bytes waiting to be sent to the client */
+	private static final int MAX_OUTPUT_SIZE = 64 * 1024;
+	/* maximum number of messages sent by a single write */
+	private static final int MAX_GATHER = 64;
+	/* mutual exclusion object (messages can be written by workers of other loops) */
+	private final ReentrantLock WRITE = new ReentrantLock();
+
+	public Connection( final SocketChannel channel, final SelectionKey key, final EventLoop loop ) throws IOException, InitException
+	{
+		this.channel = channel;
+		this.key = key;
+		this.loop = loop;
+
+		input = ByteBuffer.allocate( LobbyCodec.MAX_FRAME_SIZE );
+		output = new ArrayDeque<ByteBuffer>();
+		gather = new ByteBuffer[MAX_GATHER];
+
+		// the stream header is sent immediately, as the blocking worker does
+		output.add( ByteBuffer.wrap( LobbyCodec.streamHeader() ) );
+		queued = output.peek().remaining();
+
+		worker = new Worker( this );
+	}
+
+	@Override
+	public void setVersion( final int version )
+	{
+		this.version = version;
+	}
+
+	@Override
+	public void writeMessage( final LobbyMessage message ) throws IOException
+	{
+		if(closed || overflow)
+			throw new IOException( "connection closed" );
+
+		ByteBuffer frame = message.getFrame( version );
+		boolean full;
+
+		WRITE.lock();
+
+		full = (queued + frame.remaining() > MAX_OUTPUT_SIZE);
+		if(full)
+			overflow = true;
+		else{
+			output.add( frame );
+			queued += frame.remaining();
+		}
+
+		WRITE.unlock();
+
+		// the loop disconnects the client when the buffer is full
+		loop.requestFlush( this );
+
+		if(full)
+			throw new IOException( "output full" );
+	}
+
+	/** read the available bytes and process the complete requests
+	 *  (invoked by the loop thread only)
+	*/
+	void read()
+	{
+		int read;
+		try{
+			read = channel.read( input );
+		}catch( IOException e ){
+			read = -1;
+		}
+
+		if(read == -1){
+			// connection lost
+			terminate( closing );
+			return;
+		}
+
+		input.flip();
+
+		byte buffer[] = input.array();
+		int start = input.position(), limit = input.limit();
+		try{
+			while(start < limit && !closing){
+				if(version == LobbyCodec.LEGACY){
+					// text line, the hello message is always sent in this form
+					int i = start;
+					while(i < limit && buffer[i] != '\n')
+						i++;
+					if(i == limit)
+						break;
+
+					int end = (i > start && buffer[i - 1] == '\r') ? i - 1 : i;
+					String message = new String( buffer, start, end - start );
+					start = i + 1;
+
+					closing = worker.processMessage( message );
+				}
+				else{
+					if(limit - start < LobbyCodec.LENGTH_SIZE)
+						break;
+
+					int length = input.getShort( start ) & 0xFFFF;
+					if(length < 2 || length > LobbyCodec.MAX_FRAME_SIZE - LobbyCodec.LENGTH_SIZE || buffer[start + LobbyCodec.LENGTH_SIZE] != version){
+						// this is not a valid client
+						terminate( false );
+						return;
+					}
+
+					if(limit - start < LobbyCodec.LENGTH_SIZE + length)
+						break;
+
+					int offset = start + LobbyCodec.LENGTH_SIZE;
+					start = offset + length;
+
+					closing = worker.processRequest( LobbyCodec.requestType( buffer, offset ),
+													 LobbyCodec.requestArgument( buffer, offset, length ) );
+				}
+			}
+		}catch( Exception e ){
+			e.printStackTrace();
+			terminate( false );
+			return;
+		}
+
+		input.position( start );
+		input.compact();
+
+		if(closing)
+			loop.requestFlush( this );
+		else if(!input.hasRemaining()){
+			// the request is too long: this is not a valid client
+			terminate( false );
+		}
+	}
+
+	/** mark the connection as waiting to be flushed
+	 *
+	 * @return TRUE if it was not already waiting, FALSE otherwise
+	*/
+	boolean markFlushRequested()
+	{
+		return flush_requested.compareAndSet( false, true );
+	}
+
+	/** mark the connection as no longer waiting to be flushed (invoked by the loop thread only) */
+	void clearFlushRequested()
+	{
+		flush_requested.set( false );
+	}
+
+	/** write the pending messages (invoked by the loop thread only) */
+	void flush()
+	{
+		if(closed)
+			return;
+
+		if(overflow){
+			System.out.println( "[WORKER-" + worker.getUsername() + "]: THE CLIENT DOESN'T READ ITS MESSAGES" );
+			terminate( false );
+			return;
+		}
+
+		boolean remaining;
+
+		WRITE.lock();
+
+		try{
+			int n = 0;
+			Iterator<ByteBuffer> it = output.iterator();
+			while(n < gather.length && it.hasNext())
+				gather[n++] = it.next();
+
+			queued -= (int) channel.write( gather, 0, n );
+
+			// the views of the sent messages are dropped, their bytes are still used by the other receivers
+			while(!output.isEmpty() && !output.peek().hasRemaining())
+				output.poll();
+			remaining = !output.isEmpty();
+		}catch( IOException e ){
+			WRITE.unlock();
+			terminate( closing );
+			return;
+		}
+
+		WRITE.unlock();
+
+		if(remaining)
+			// the socket buffer is full: wait until it becomes writable
+			key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+		else{
+			key.interestOps( SelectionKey.OP_READ );
+			if(closing)
+				terminate( true );
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		// the connection is closed by the loop once the pending messages are flushed
+		closing = true;
+		loop.requestFlush( this );
+	}
+
+	/** release the resources of the connection (invoked by the loop thread only)
+	 *
+	 * @param close		TRUE if the connection is closed by the protocol, FALSE if it was lost
+	*/
+	private void terminate( final boolean close )
+	{
+		if(closed)
+			return;
+
+		closed = true;
+		worker.disconnect( close );
+		key.cancel();
+		try{ channel.close(); }
+		catch( IOException e ){}
+
+		loop.connectionClosed();
+
+		System.out.println( "[WORKER-" + worker.getUsername() + "]: CLOSED" );
+	}
+}
\ No newline at end of file
@@ -0,0 +1,155 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Selector based loop serving the lobby connections without blocking a thread for each client */
+public class EventLoop extends Thread
+{
+	/* the selector of the loop */
+	private Selector selector;
+	/* accepted channels waiting to be registered */
+	private ConcurrentLinkedQueue<SocketChannel> accepted;
+	/* connections with messages to flush */
+	private ConcurrentLinkedQueue<Connection> pending;
+
+	/* number of open connections, shared among all the loops */
+	private static final AtomicInteger CONNECTIONS = new AtomicInteger( 0 );
+
+	public EventLoop( final int id ) throws IOException
+	{
+		super( "EventLoop-" + id );
+
+		selector = Selector.open();
+		accepted = new ConcurrentLinkedQueue<SocketChannel>();
+		pending = new ConcurrentLinkedQueue<Connection>();
+	}
+
+	/** accept the incoming connections and distribute them among the loops; it never returns
+	 *
+	 * @param port				the TCP port
+	 * @param n_loops			number of loop threads
+	 * @param max_connections	maximum number of open connections
+	*/
+	public static void serve( final int port, final int n_loops, final int max_connections ) throws IOException
+	{
+		EventLoop loops[] = new EventLoop[n_loops];
+		for(int i = 0; i < n_loops; i++){
+			loops[i] = new EventLoop( i );
+			loops[i].start();
+		}
+
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind( new InetSocketAddress( port ), 1024 );
+
+		System.out.println( "[MAIN]: SERVER READY" );
+
+		int next = 0;
+		while(true){
+			SocketChannel channel = server.accept();
+
+			if(CONNECTIONS.incrementAndGet() > max_connections){
+				// the server is full: refuse the connection
+				CONNECTIONS.decrementAndGet();
+				try{ channel.close(); }
+				catch( IOException e ){}
+				continue;
+			}
+
+			loops[next].register( channel );
+			next = (next + 1) % n_loops;
+		}
+	}
+
+	/** hand a new channel to the loop
+	 *
+	 * @param channel	the accepted channel
+	*/
+	private void register( final SocketChannel channel )
+	{
+		accepted.add( channel );
+		selector.wakeup();
+	}
+
+	/** ask the loop to flush the output of a connection; the messages written
+	 *  while the loop processes the ready keys are sent together at the end of the iteration
+	 *
+	 * @param connection	the connection with pending messages
+	*/
+	void requestFlush( final Connection connection )
+	{
+		if(connection.markFlushRequested()){
+			pending.add( connection );
+			if(Thread.currentThread() != this)
+				selector.wakeup();
+		}
+	}
+
+	/** notify that a connection of the loop is closed */
+	void connectionClosed()
+	{
+		CONNECTIONS.decrementAndGet();
+	}
+
+	@Override
+	public void run()
+	{
+		while(true){
+			try{
+				selector.select();
+			}catch( IOException e ){
+				e.printStackTrace();
+				return;
+			}
+
+			// register the new connections
+			SocketChannel channel;
+			while((channel = accepted.poll()) != null){
+				try{
+					channel.configureBlocking( false );
+					// the messages of a flush are already gathered in a single write: they must not wait for the ack of the previous ones
+					channel.setOption( StandardSocketOptions.TCP_NODELAY, true );
+					SelectionKey key = channel.register( selector, SelectionKey.OP_READ );
+					key.attach( new Connection( channel, key, this ) );
+					requestFlush( (Connection) key.attachment() );
+				}catch( IOException | InitException e ){
+					e.printStackTrace();
+					try{ channel.close(); }
+					catch( IOException e1 ){}
+					connectionClosed();
+				}
+			}
+
+			Connection connection;
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while(it.hasNext()){
+				SelectionKey key = it.next();
+				it.remove();
+
+				connection = (Connection) key.attachment();
+				if(key.isValid() && key.isReadable())
+					connection.read();
+				if(key.isValid() && key.isWritable())
+					connection.flush();
+			}
+
+			// flush all the messages written since the last iteration
+			while((connection = pending.poll()) != null){
+				connection.clearFlushRequested();
+				connection.flush();
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import java.util.Arrays;
+
+/** Completion times of the last lobby fan-outs, from the first callback submitted to the last one completed */
+public class FanOutStats
+{
+	/* circular buffer of the last samples, in nanoseconds */
+	private long samples[];
+	/* total number of recorded samples */
+	private long count = 0;
+
+	/* number of samples kept */
+	private static final int SIZE = 1024;
+
+	public FanOutStats()
+	{
+		samples = new long[SIZE];
+	}
+
+	/** record the completion time of a fan-out
+	 * 
+	 * @param nanos		the completion time, in nanoseconds
+	*/
+	public synchronized void record( final long nanos )
+	{
+		samples[(int) (count++ % SIZE)] = nanos;
+	}
+
+	/** return the total number of recorded fan-outs */
+	public synchronized long getCount()
+	{
+		return count;
+	}
+
+	/** return a percentile of the last completion times
+	 * 
+	 * @param p		the percentile, in the range [0, 100]
+	 * 
+	 * @return the completion time in nanoseconds, 0 if nothing has been recorded
+	*/
+	public synchronized long percentile( final double p )
+	{
+		int n = (int) Math.min( count, SIZE );
+		if(n == 0)
+			return 0;
+
+		long sorted[] = Arrays.copyOf( samples, n );
+		Arrays.sort( sorted );
+
+		// nearest rank
+		int rank = (int) Math.ceil( p / 100 * n ) - 1;
+
+		return sorted[Math.max( 0, Math.min( n - 1, rank ) )];
+	}
+
+	@Override
+	public String toString()
+	{
+		return "p50 " + percentile( 50 ) / 1000000.0 + " ms, p90 " + percentile( 90 ) / 1000000.0 +
+			   " ms, p99 " + percentile( 99 ) / 1000000.0 + " ms, max " + percentile( 100 ) / 1000000.0 + " ms";
+	}
+}
\ No newline at end of file
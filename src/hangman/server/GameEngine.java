@@ -0,0 +1,392 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.ChannelLease;
+import hangman.utils.GamePacket;
+import hangman.utils.MatchCipher;
+import hangman.utils.MulticastTransport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Selector based loop running the games hosted by the server.
+ *  Every engine owns the channels of some multicast groups and all the games played on them,
+ *  so the state of a game is accessed only by the thread of its engine.
+ *  A packet is routed to its game by the match id, and only then decrypted
+*/
+public class GameEngine extends Thread
+{
+	/* the selector of the loop */
+	private Selector selector;
+	/* interface used for the multicast */
+	private NetworkInterface iface;
+	/* games to start or to cancel */
+	private ConcurrentLinkedQueue<HostedGame> commands;
+	/* joined groups, indexed by address */
+	private HashMap<InetSocketAddress, Group> groups;
+	/* buffer of the received packets */
+	private ByteBuffer receive_buffer;
+	/* buffer of the decrypted packets */
+	private ByteBuffer plain_buffer;
+	/* buffer used to encode the packets to send */
+	private ByteBuffer encode_buffer;
+	/* buffer of the encrypted packets to send */
+	private ByteBuffer send_buffer;
+	/* packet to send, reused for every message */
+	private GamePacket message;
+	/* time of the next check of the deadlines, in milliseconds */
+	private long next_check = 0;
+	/* identifier of the engine */
+	private int id;
+
+	/* the engines */
+	private static GameEngine engines[];
+
+	/* maximum size of an encrypted packet */
+	private static final int MAX_BUFFER_SIZE = GamePacket.MAX_PACKET_SIZE + MatchCipher.OVERHEAD;
+	/* time between two checks of the deadlines, in milliseconds */
+	private static final long CHECK_INTERVAL = 1000;
+
+	public GameEngine( final int id ) throws IOException
+	{
+		super( "GameEngine-" + id );
+		setDaemon( true );
+
+		this.id = id;
+
+		selector = Selector.open();
+		iface = MulticastTransport.findInterface();
+		commands = new ConcurrentLinkedQueue<HostedGame>();
+		groups = new HashMap<InetSocketAddress, Group>();
+
+		receive_buffer = ByteBuffer.allocateDirect( MAX_BUFFER_SIZE );
+		plain_buffer = ByteBuffer.allocate( MAX_BUFFER_SIZE );
+		encode_buffer = ByteBuffer.allocate( GamePacket.MAX_PACKET_SIZE );
+		send_buffer = ByteBuffer.allocateDirect( MAX_BUFFER_SIZE );
+		message = new GamePacket();
+	}
+
+	/** start the engines
+	 *
+	 * @param n_engines		number of engine threads, 0 if the games are run by the masters
+	*/
+	public static void init( final int n_engines ) throws IOException
+	{
+		GameEngine created[] = new GameEngine[n_engines];
+		for(int i = 0; i < n_engines; i++){
+			created[i] = new GameEngine( i );
+			created[i].start();
+		}
+
+		engines = created;
+	}
+
+	/** check if the server runs the games */
+	public static boolean isEnabled()
+	{
+		return engines != null && engines.length > 0;
+	}
+
+	/** run a game on the engine owning its multicast group
+	 *
+	 * @param master	master of the match
+	 * @param lease		lease of the multicast channel
+	 * @param word		the word to guess
+	 * @param guessers	number of guessers
+	 *
+	 * @return the game, null if it cannot be created
+	*/
+	public static HostedGame host( final String master, final ChannelLease lease, final String word, final int guessers )
+	{
+		// all the matches of a group are played on the same engine, which receives their packets
+		GameEngine engine = engines[Math.floorMod( (lease.getAddress() + ":" + lease.getPort()).hashCode(), engines.length )];
+
+		HostedGame game;
+		try{
+			game = new HostedGame( engine, master, lease, word, guessers );
+		}catch( IOException e ){
+			e.printStackTrace();
+			return null;
+		}
+
+		engine.commands.add( game );
+		engine.selector.wakeup();
+
+		return game;
+	}
+
+	/** stop a game
+	 *
+	 * @param game	the game
+	*/
+	void cancel( final HostedGame game )
+	{
+		game.setCancelled();
+
+		commands.add( game );
+		selector.wakeup();
+	}
+
+	@Override
+	public void run()
+	{
+		while(true){
+			try{
+				selector.select( CHECK_INTERVAL );
+
+				HostedGame game;
+				while((game = commands.poll()) != null){
+					if(game.isCancelled())
+						finish( game, "CANCELLED" );
+					else
+						register( game );
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if(key.isValid() && key.isReadable())
+						receive( (Group) key.attachment() );
+				}
+
+				long now = System.currentTimeMillis();
+				if(now >= next_check){
+					checkDeadlines( now );
+					next_check = now + CHECK_INTERVAL;
+				}
+			}catch( IOException e ){
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** start a game, joining its group if it is the first one of the group
+	 *
+	 * @param game	the game
+	*/
+	private void register( final HostedGame game )
+	{
+		ChannelLease lease = game.getLease();
+		InetSocketAddress address = new InetSocketAddress( lease.getAddress(), lease.getPort() );
+
+		Group group = groups.get( address );
+		if(group == null){
+			try{
+				DatagramChannel channel = MulticastTransport.openChannel( InetAddress.getByName( lease.getAddress() ), lease.getPort(), iface );
+				group = new Group( address, channel );
+				group.key = channel.register( selector, SelectionKey.OP_READ, group );
+			}catch( IOException e ){
+				e.printStackTrace();
+				lease.release();
+				return;
+			}
+
+			groups.put( address, group );
+		}
+
+		game.setGroup( group );
+		group.games.put( lease.getMatchId(), game );
+		game.start( System.currentTimeMillis() );
+
+		System.out.println( "[ENGINE-" + id + "]: MATCH OF " + game.getMaster() + " STARTED" );
+	}
+
+	/** process the packets received on a group
+	 *
+	 * @param group		the group
+	*/
+	private void receive( final Group group ) throws IOException
+	{
+		SocketAddress sender;
+
+		while(true){
+			receive_buffer.clear();
+			if((sender = group.channel.receive( receive_buffer )) == null)
+				return;
+			receive_buffer.flip();
+
+			// the packets of the matches not run by the server are dropped before the decryption
+			HostedGame game = group.games.get( MatchCipher.getMatchId( receive_buffer ) );
+			if(game == null)
+				continue;
+
+			plain_buffer.clear();
+			if(!game.getCipher().decrypt( receive_buffer, plain_buffer ))
+				continue;
+			plain_buffer.flip();
+
+			// every game decodes in its own packet, so the slots of the guessers are local to the game
+			GamePacket received = game.getPacket();
+			if(received.decode( plain_buffer )){
+				game.process( received, sender );
+				if(game.isFinished()){
+					finish( game, "OVER" );
+					// the last game of the group has closed the channel
+					if(!group.channel.isOpen())
+						return;
+				}
+			}
+		}
+	}
+
+	/** end the games whose time is over
+	 *
+	 * @param now	current time, in milliseconds
+	*/
+	private void checkDeadlines( final long now )
+	{
+		ArrayList<HostedGame> expired = null;
+
+		for(Group group : groups.values()){
+			for(HostedGame game : group.games.values()){
+				if(now >= game.getDeadline()){
+					if(expired == null)
+						expired = new ArrayList<HostedGame>();
+					expired.add( game );
+				}
+			}
+		}
+
+		if(expired != null){
+			for(HostedGame game : expired){
+				try{
+					game.timeout();
+				}catch( IOException e ){
+					e.printStackTrace();
+				}
+
+				// the game is over even if its players are not warned, so its channel is given back
+				finish( game, "OVER, TIME IS OVER" );
+			}
+		}
+	}
+
+	/** remove a game, leaving its group if it was the last one, and give its channel back
+	 *
+	 * @param game		the game
+	 * @param reason	reason of the end, for the log
+	*/
+	private void finish( final HostedGame game, final String reason )
+	{
+		Group group = game.getGroup();
+		if(group == null || group.games.get( game.getLease().getMatchId() ) != game){
+			// never started or already over: nobody else gives the channel back
+			game.getLease().release();
+			return;
+		}
+
+		group.games.remove( game.getLease().getMatchId() );
+		if(group.games.isEmpty()){
+			group.key.cancel();
+			try{ group.channel.close(); }
+			catch( IOException e ){}
+			groups.remove( group.address );
+		}
+
+		game.getLease().release();
+
+		System.out.println( "[ENGINE-" + id + "]: MATCH OF " + game.getMaster() + " " + reason );
+	}
+
+	/** multicast a message to the players of a game
+	 *
+	 * @param game		the game
+	 * @param type		type of the message
+	 * @param letter	played letter, 0 if not significant
+	 * @param guesser	guesser username, null if not significant
+	 * @param ack		last letter of the guesser received with all the previous ones, 0 if not significant
+	 * @param ack_mask	letters of the guesser received after the ack, 0 if not significant
+	 * @param word		current state of the word, null if not significant
+	*/
+	void send( final HostedGame game, final char type, final char letter, final String guesser,
+			   final int ack, final int ack_mask, final CharSequence word ) throws IOException
+	{
+		encrypt( game, type, letter, guesser, ack, ack_mask, word );
+		game.getGroup().channel.send( send_buffer, game.getGroup().address );
+	}
+
+	/** send a message to a single player of a game
+	 *
+	 * @param game		the game
+	 * @param receiver	address of the player
+	 * @param type		type of the message
+	 * @param letter	played letter, 0 if not significant
+	 * @param guesser	guesser username, null if not significant
+	 * @param ack		last letter of the guesser received with all the previous ones, 0 if not significant
+	 * @param ack_mask	letters of the guesser received after the ack, 0 if not significant
+	 * @param word		current state of the word, null if not significant
+	*/
+	void reply( final HostedGame game, final SocketAddress receiver, final char type, final char letter,
+				final String guesser, final int ack, final int ack_mask, final CharSequence word ) throws IOException
+	{
+		encrypt( game, type, letter, guesser, ack, ack_mask, word );
+		game.getGroup().channel.send( send_buffer, receiver );
+	}
+
+	/** encode and encrypt a message in the send buffer
+	 *
+	 * @param game		the game
+	 * @param type		type of the message
+	 * @param letter	played letter, 0 if not significant
+	 * @param guesser	guesser username, null if not significant
+	 * @param ack		last letter of the guesser received with all the previous ones, 0 if not significant
+	 * @param ack_mask	letters of the guesser received after the ack, 0 if not significant
+	 * @param word		current state of the word, null if not significant
+	*/
+	private void encrypt( final HostedGame game, final char type, final char letter, final String guesser,
+						  final int ack, final int ack_mask, final CharSequence word ) throws IOException
+	{
+		message.set( type, letter, guesser, 0, word );
+		message.setAck( ack, ack_mask );
+
+		encode_buffer.clear();
+		message.encode( encode_buffer );
+		encode_buffer.flip();
+
+		send_buffer.clear();
+		try{
+			game.getCipher().encrypt( encode_buffer, send_buffer );
+		}catch( GeneralSecurityException e ){
+			throw new IOException( "unable to encrypt the message", e );
+		}
+		send_buffer.flip();
+	}
+
+	/** multicast group joined by an engine, with the games played on it */
+	static class Group
+	{
+		/* address of the group */
+		private final InetSocketAddress address;
+		/* channel joined to the group */
+		private final DatagramChannel channel;
+		/* registration of the channel */
+		private SelectionKey key;
+		/* games of the group, indexed by match id */
+		private final HashMap<Integer, HostedGame> games;
+
+		public Group( final InetSocketAddress address, final DatagramChannel channel )
+		{
+			this.address = address;
+			this.channel = channel;
+
+			games = new HashMap<Integer, HostedGame>();
+		}
+	}
+}
\ No newline at end of file
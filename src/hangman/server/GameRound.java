@@ -0,0 +1,157 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.client.GuesserTable;
+import hangman.utils.GamePacket;
+import hangman.utils.LetterSet;
+import hangman.utils.Message;
+
+/** Rules of a game, shared by the Master client and by the games run by the server.
+ *  Every packet of a guesser is played in a round, which returns the type of the reply to send;
+ *  the reply is built from the state of the last round (guesser, letter and acknowledgement)
+*/
+public class GameRound
+{
+	/* manage the word to guess */
+	private GuessWord gw;
+	/* expected packet number of each guesser */
+	private GuesserTable players;
+	/* already played letters */
+	private LetterSet char_used;
+	/* remaining trials */
+	private int trials = MAX_TRIALS;
+	/* slot of the guesser of the last round */
+	private int slot;
+	/* guesser of the last round */
+	private String guesser;
+	/* letter of the last round */
+	private char letter;
+
+	/** maximum number of trials to guess the world */
+	public static final int MAX_TRIALS = 10;
+	/* number of trials after that we send a GO_ON message */
+	private static final int MAX_DUPLICATED_MESSAGES = 3;
+
+	/** create the game
+	 *
+	 * @param word		the word to guess
+	 * @param guessers	number of guessers
+	*/
+	public GameRound( final String word, final int guessers )
+	{
+		gw = new GuessWord( word );
+		players = new GuesserTable( guessers );
+		char_used = new LetterSet();
+	}
+
+	/** play a packet of a guesser
+	 *
+	 * @param msg	the decoded packet
+	 *
+	 * @return PARTIAL_RESULT if the letter is played, GO_ON if the guesser must be notified of the packets received,
+	 *         0 if the packet is discarded
+	*/
+	public char play( final GamePacket msg )
+	{
+		if(msg.getType() != Message.NEW_LETTER || msg.getGuesser() == null) // invalid message
+			return 0;
+
+		// the packet gives a slot only to the first names of the game, as many as the guessers
+		slot = msg.getGuesserSlot();
+		if(slot == -1)
+			return 0;
+
+		guesser = msg.getGuesser();
+		int result = players.receive( slot, msg.getPktNumber() );
+		if(result == -1){
+			// this is an old message sent by ack timeout
+			if(players.getOldMessages( slot ) == MAX_DUPLICATED_MESSAGES)
+				return Message.GO_ON;
+
+			players.increaseOldMessages( slot );
+			return 0;
+		}
+		else if(result == -2) // outside the window of the guesser
+			return 0;
+
+		letter = Character.toLowerCase( msg.getLetter() );
+		// updates the current state ONLY if the character is selected for the first time
+		if(char_used.add( letter )){
+			if(!gw.checkCharacter( letter ))
+				trials--;
+		}
+
+		return Message.PARTIAL_RESULT;
+	}
+
+	/** return the end of the game after the last played letter
+	 *
+	 * @return GUESSER_WIN if the word is guessed, END_OF_TRIALS if the trials are over, 0 if the game goes on
+	*/
+	public char getResult()
+	{
+		if(gw.isGuessed())
+			return Message.GUESSER_WIN;
+		if(trials == 0)
+			return Message.END_OF_TRIALS;
+
+		return 0;
+	}
+
+	/** return the guesser of the last round */
+	public String getGuesser()
+	{
+		return guesser;
+	}
+
+	/** return the letter of the last round */
+	public char getLetter()
+	{
+		return letter;
+	}
+
+	/** return the last packet number of the guesser of the last round received with all the previous ones */
+	public int getAck()
+	{
+		return players.getAck( slot );
+	}
+
+	/** return the packets of the guesser of the last round received after its ack */
+	public int getAckMask()
+	{
+		return players.getAckMask( slot );
+	}
+
+	/** return the remaining trials */
+	public int getTrials()
+	{
+		return trials;
+	}
+
+	/** check if the word is guessed */
+	public boolean isGuessed()
+	{
+		return gw.isGuessed();
+	}
+
+	/** return the current state of the word, without copies */
+	public CharSequence getPartial()
+	{
+		return gw.getPartial();
+	}
+
+	/** return the current state of the word */
+	public String getPartialWord()
+	{
+		return gw.getPartialWord();
+	}
+
+	/** return the word to guess */
+	public String getWord()
+	{
+		return gw.getWord();
+	}
+}
\ No newline at end of file
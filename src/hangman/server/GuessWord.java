@@ -4,6 +4,11 @@
 
 package hangman.server;
 
+/** The word to guess and its revealed letters.
+ *  The positions of every distinct letter are computed once, as a bitmask over the whole word,
+ *  so a guess costs a table lookup and an OR of the masks, whatever the length of the word and its alphabet.
+ *  The partial word is updated in place: it is exposed without copies, and as a String built only once per change
+*/
 public class GuessWord
 {
 	/* the word to be guessed */
@@ -12,43 +17,118 @@ public class GuessWord
 	private int length;
 	/* the partial word */
 	private char partial_word[];
-	/* length of the partial word */
+	/* read-only view of the partial word */
+	private CharSequence partial_view;
+	/* number of revealed positions */
 	private int partial_length = 0;
+	/* the complete word */
+	private String word;
+	/* last String of the partial word, null if it is changed since then */
+	private String partial_string;
+	/* distinct letters of the word, open addressing table (EMPTY if the slot is free) */
+	private int letters[];
+	/* index of each letter of the table in the masks */
+	private int letter_index[];
+	/* positions of each distinct letter, (length + 63) / 64 words for each letter */
+	private long positions[];
+	/* determines if each distinct letter is already revealed */
+	private boolean revealed[];
+	/* number of words of a mask */
+	private int n_words;
+
+	/* free slot of the letters table */
+	private static final int EMPTY = -1;
 
 	public GuessWord( String word )
 	{
 		word_array = word.toLowerCase().toCharArray();
+		this.word = new String( word_array );
 
-		length = word.length();
+		length = word_array.length;
 		partial_word = new char[length];
 		for(int i = 0; i < length; i++)
 			partial_word[i] = '_';
+		partial_view = new PartialWord();
+
+		// the table has at least twice the slots of the distinct letters, so the probes are short
+		int size = 8;
+		while(size < 2 * length)
+			size <<= 1;
+		letters = new int[size];
+		letter_index = new int[size];
+		for(int i = 0; i < size; i++)
+			letters[i] = EMPTY;
+
+		n_words = (length + 63) >>> 6;
+		positions = new long[length * n_words];
+
+		int n_letters = 0;
+		for(int i = 0; i < length; i++){
+			char c = word_array[i];
+
+			int slot = find( c );
+			if(letters[slot] == EMPTY){
+				letters[slot] = c;
+				letter_index[slot] = n_letters++;
+			}
+
+			positions[letter_index[slot] * n_words + (i >>> 6)] |= 1L << (i & 63);
+		}
+
+		revealed = new boolean[n_letters];
+	}
+
+	/** return the slot of a letter in the table, or the free slot where it must be inserted
+	 *
+	 * @param c		the letter
+	*/
+	private int find( final char c )
+	{
+		int mask = letters.length - 1;
+		int slot = (c * 0x9E3779B9) >>> 16 & mask;
+
+		while(letters[slot] != EMPTY && letters[slot] != c)
+			slot = (slot + 1) & mask;
+
+		return slot;
 	}
 
 	/** checks and replaces all the possible occurrencies of the input character
-	 * 
+	 *
 	 * @param c  the input character
-	 * 
-	 * @return TRUE if the input letter is founded inside the remaining letters, FALSE otherwise
+	 *
+	 * @return TRUE if the input letter is founded inside the word, FALSE otherwise
 	*/
 	public boolean checkCharacter( final char c )
 	{
-		boolean founded = false;
+		int slot = find( c );
+		if(letters[slot] == EMPTY)
+			return false;
 
-		// replace any occurance of the input character in the partial word
-		for(int i = 0; i < length; i++){
-			if(word_array[i] == c){
-				partial_word[i] = c;
-				partial_length++;
-				founded = true;
+		int index = letter_index[slot];
+		// a letter guessed again doesn't reveal anything
+		if(revealed[index])
+			return true;
+
+		revealed[index] = true;
+		partial_string = null;
+
+		int base = index * n_words;
+		for(int w = 0; w < n_words; w++){
+			long mask = positions[base + w];
+			partial_length += Long.bitCount( mask );
+
+			while(mask != 0){
+				partial_word[(w << 6) + Long.numberOfTrailingZeros( mask )] = c;
+				mask &= mask - 1;
 			}
 		}
 
-		return founded;
+		return true;
 	}
 
 	/** checks if the word is guessed
-	 * 
+	 *
 	 * @return TRUE if the word is guessed, FALSE otherwise
 	*/
 	public boolean isGuessed()
@@ -56,15 +136,52 @@ public class GuessWord
 		return partial_length == length;
 	}
 
+	/** returns the partial word, as a view which follows the next guesses */
+	public CharSequence getPartial()
+	{
+		return partial_view;
+	}
+
 	/** returns the partial word */
 	public String getPartialWord()
 	{
-		return new String( partial_word );
+		if(partial_string == null)
+			partial_string = new String( partial_word );
+
+		return partial_string;
 	}
 
 	/** returns the complete word */
 	public String getWord()
 	{
-		return new String( word_array );
+		return word;
+	}
+
+	/** read-only view of the partial word */
+	private final class PartialWord implements CharSequence
+	{
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt( final int index )
+		{
+			return partial_word[index];
+		}
+
+		@Override
+		public CharSequence subSequence( final int start, final int end )
+		{
+			return new String( partial_word, start, end - start );
+		}
+
+		@Override
+		public String toString()
+		{
+			return getPartialWord();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.ChannelLease;
+import hangman.utils.GamePacket;
+import hangman.utils.MatchCipher;
+import hangman.utils.Message;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.security.GeneralSecurityException;
+
+/** State of a game run by the server in place of the master.
+ *  The game follows the rules of GameRound, as the Master client does, and it is accessed only by the thread of its GameEngine
+*/
+public class HostedGame
+{
+	/* engine running the game */
+	private GameEngine engine;
+	/* multicast group of the game */
+	private GameEngine.Group group;
+	/* master of the match */
+	private String master;
+	/* lease of the multicast channel */
+	private ChannelLease lease;
+	/* cipher of the match */
+	private MatchCipher cipher;
+	/* rules of the game and word to guess */
+	private GameRound round;
+	/* last received packet, which gives a slot to each guesser of the game */
+	private GamePacket received;
+	/* time after which the master wins, in milliseconds */
+	private long deadline;
+	/* determines if the game is over */
+	private boolean finished = false;
+	/* determines if the game has been stopped from outside */
+	private volatile boolean cancelled = false;
+
+	/* duration of the game (5 minutes) */
+	private static final int TIME_MATCH = 300000;
+
+	/** create the game; the cipher is derived here, on the thread of the caller
+	 *
+	 * @param engine	engine running the game
+	 * @param master	master of the match
+	 * @param lease		lease of the multicast channel
+	 * @param word		the word to guess
+	 * @param guessers	number of guessers
+	*/
+	HostedGame( final GameEngine engine, final String master, final ChannelLease lease, final String word, final int guessers ) throws IOException
+	{
+		this.engine = engine;
+		this.master = master;
+		this.lease = lease;
+
+		try{
+			cipher = new MatchCipher( lease.getKey(), lease.getMatchId() );
+		}catch( GeneralSecurityException e ){
+			throw new IOException( "unable to initialize the cipher", e );
+		}
+
+		round = new GameRound( word, guessers );
+		received = new GamePacket( guessers );
+	}
+
+	/** stop the game, if it is not started yet or still running; it can be invoked by any thread */
+	public void cancel()
+	{
+		engine.cancel( this );
+	}
+
+	/** mark the game as stopped */
+	void setCancelled()
+	{
+		cancelled = true;
+	}
+
+	/** check if the game has been stopped */
+	boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/** return the multicast group of the game, null if the game is not started */
+	GameEngine.Group getGroup()
+	{
+		return group;
+	}
+
+	/** assign the multicast group of the game
+	 *
+	 * @param group		the group
+	*/
+	void setGroup( final GameEngine.Group group )
+	{
+		this.group = group;
+	}
+
+	/** return the master of the match */
+	String getMaster()
+	{
+		return master;
+	}
+
+	/** return the lease of the multicast channel */
+	ChannelLease getLease()
+	{
+		return lease;
+	}
+
+	/** return the cipher of the match */
+	MatchCipher getCipher()
+	{
+		return cipher;
+	}
+
+	/** return the packet in which the messages of the game are decoded */
+	GamePacket getPacket()
+	{
+		return received;
+	}
+
+	/** return the time after which the master wins */
+	long getDeadline()
+	{
+		return deadline;
+	}
+
+	/** check if the game is over */
+	boolean isFinished()
+	{
+		return finished;
+	}
+
+	/** start the timer of the game
+	 *
+	 * @param now	current time, in milliseconds
+	*/
+	void start( final long now )
+	{
+		deadline = now + TIME_MATCH;
+	}
+
+	/** process a packet of the match
+	 *
+	 * @param msg		the decoded packet
+	 * @param sender	address of the sender
+	*/
+	void process( final GamePacket msg, final SocketAddress sender ) throws IOException
+	{
+		if(msg.getType() == Message.END_GAME){
+			// the master has left: the guessers receive its message directly
+			finished = true;
+			return;
+		}
+
+		char reply = round.play( msg );
+		if(reply == Message.GO_ON)
+			// send a GO_ON message to notify the guesser of the packets we have received
+			engine.reply( this, sender, Message.GO_ON, (char) 0, round.getGuesser(), round.getAck(), round.getAckMask(), null );
+		else if(reply == Message.PARTIAL_RESULT){
+			// multicast send, which acknowledges the packets of the guesser
+			engine.send( this, Message.PARTIAL_RESULT, round.getLetter(), round.getGuesser(), round.getAck(), round.getAckMask(), round.getPartial() );
+
+			char result = round.getResult();
+			if(result != 0){
+				engine.send( this, result, (char) 0, (result == Message.GUESSER_WIN) ? round.getGuesser() : null, 0, 0, null );
+				finished = true;
+			}
+		}
+	}
+
+	/** end the game because the time is over */
+	void timeout() throws IOException
+	{
+		finished = true;
+		engine.send( this, Message.TIMEOUT, (char) 0, null, 0, 0, null );
+	}
+}
\ No newline at end of file
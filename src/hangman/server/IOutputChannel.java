@@ -0,0 +1,28 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.LobbyMessage;
+
+import java.io.IOException;
+
+/** Output side of a client TCP connection, used to deliver the lobby messages */
+public interface IOutputChannel
+{
+	/** send a message to the client
+	 *
+	 * @param message	the message to send
+	*/
+	public void writeMessage( final LobbyMessage message ) throws IOException;
+
+	/** select the protocol spoken by the client, as announced by its hello message
+	 *
+	 * @param version	LobbyCodec.LEGACY for the serialized objects, the binary protocol version otherwise
+	*/
+	public void setVersion( final int version );
+
+	/** close the output side of the connection */
+	public void close();
+}
\ No newline at end of file
@@ -5,6 +5,7 @@
 package hangman.server;
 
 import hangman.client.IRemoteClient;
+import hangman.utils.LobbySnapshot;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
@@ -50,4 +51,13 @@ public interface IRemoteServer extends Remote
 	 * @param remote_client  object used for the RMI callback
 	*/
 	public void getMatches( IRemoteClient remote_client ) throws RemoteException;
+
+	/** get the current state of the lobby; from now on the client receives only its changes
+	 * 
+	 * @param username		client username
+	 * @param sequence		sequence number of the lobby known by the client, -1 if it doesn't know it
+	 * 
+	 * @return the open matches and the sequence number of the last change, null if the lobby is unchanged since sequence
+	*/
+	public LobbySnapshot getLobby( final String username, final long sequence ) throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+/** Thrown when a worker is created before the initialization of its internal structures */
+class InitException extends Exception
+{
+	/* generated serial ID */
+	private static final long serialVersionUID = -3871704546471923061L;
+
+	public InitException()
+	{
+		super();
+	}
+}
\ No newline at end of file
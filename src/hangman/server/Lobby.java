@@ -0,0 +1,150 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.LobbySnapshot;
+import hangman.utils.LobbyUpdate;
+import hangman.utils.Message;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Versioned model of the lobby: every change of the open matches increases its sequence number
+ *  and produces the LobbyUpdate handed to the broadcaster in place of the whole list.
+ *  After each change an immutable view of the lobby is published, with its snapshot and its text already built:
+ *  the readers never take the lock
+*/
+public class Lobby
+{
+	/* sequence number of the last change */
+	private static long sequence = 0;
+	/* current state of the open matches, indexed by master */
+	private static LinkedHashMap<String, LobbyUpdate> matches = new LinkedHashMap<String, LobbyUpdate>();
+	/* view of the lobby after the last change */
+	private static volatile View view = new View( new LobbySnapshot( 0, new LobbyUpdate[0] ) );
+	/* dispatcher of the changes (null if they are not sent) */
+	private static LobbyBroadcaster broadcaster = null;
+
+	/* mutual exclusion object for the writers */
+	private static final ReentrantLock LOBBY = new ReentrantLock();
+
+	/** set the dispatcher of the changes
+	 * 
+	 * @param lobby_broadcaster		the dispatcher
+	*/
+	public static void setBroadcaster( final LobbyBroadcaster lobby_broadcaster )
+	{
+		broadcaster = lobby_broadcaster;
+	}
+
+	/** publish the new view and hand the change to the broadcaster;
+	 *  it is invoked holding the lock, so the changes are recorded in order
+	 * 
+	 * @param update	the change
+	*/
+	private static void publish( final LobbyUpdate update )
+	{
+		view = new View( new LobbySnapshot( sequence, matches.values().toArray( new LobbyUpdate[matches.size()] ) ) );
+
+		if(broadcaster != null)
+			broadcaster.changed( update );
+	}
+
+	/** record a new match
+	 * 
+	 * @param master		master of the match
+	 * @param max_users		max number of users
+	*/
+	public static void matchAdded( final String master, final int max_users )
+	{
+		LOBBY.lock();
+
+		LobbyUpdate update = new LobbyUpdate( Message.MATCH_ADDED, ++sequence, master, 0, max_users );
+		matches.put( master, update );
+		publish( update );
+
+		LOBBY.unlock();
+	}
+
+	/** record a change of the number of users of a match
+	 * 
+	 * @param master	master of the match
+	 * @param delta		number of users added (> 0) or removed (< 0)
+	*/
+	public static void playersChanged( final String master, final int delta )
+	{
+		LOBBY.lock();
+
+		LobbyUpdate match = matches.get( master );
+		if(match == null){
+			LOBBY.unlock();
+			return;
+		}
+
+		LobbyUpdate update = new LobbyUpdate( Message.PLAYERS_CHANGED, ++sequence, master,
+											  match.getCurrentUsers() + delta, match.getMaxUsers() );
+		matches.put( master, update );
+		publish( update );
+
+		LOBBY.unlock();
+	}
+
+	/** record the removal of a match
+	 * 
+	 * @param master	master of the match
+	*/
+	public static void matchRemoved( final String master )
+	{
+		LOBBY.lock();
+
+		LobbyUpdate match = matches.remove( master );
+		if(match == null){
+			LOBBY.unlock();
+			return;
+		}
+
+		LobbyUpdate update = new LobbyUpdate( Message.MATCH_REMOVED, ++sequence, master,
+											  match.getCurrentUsers(), match.getMaxUsers() );
+		publish( update );
+
+		LOBBY.unlock();
+	}
+
+	/** return the current state of the lobby */
+	public static LobbySnapshot snapshot()
+	{
+		return view.snapshot;
+	}
+
+	/** returns the string representing the open matches, sent to the clients which don't handle the changes */
+	public static String toText()
+	{
+		return view.text;
+	}
+
+	/** immutable state of the lobby at a given sequence number */
+	private static class View
+	{
+		/* the open matches */
+		private final LobbySnapshot snapshot;
+		/* string representing the open matches */
+		private final String text;
+
+		public View( final LobbySnapshot snapshot )
+		{
+			this.snapshot = snapshot;
+
+			LobbyUpdate open[] = snapshot.getMatches();
+
+			StringBuilder m_string = new StringBuilder( 64 );
+			m_string.append( "   " + open.length + " OPEN MATCHES" );
+
+			for(int i = 0; i < open.length; i++)
+				m_string.append( "   MATCH " + (i + 1) + ": " + open[i].toString() + "\n" );
+
+			text = m_string.toString();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,277 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.LobbyChanges;
+import hangman.utils.LobbyUpdate;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Dispatcher of the lobby updates. The request path only records the changes,
+ *  while this thread sends to the clients at most one coalesced update per interval,
+ *  so the logins and the matchmaking never wait for the RMI callbacks.
+ *  The callbacks run in parallel on the callback executor: a client whose previous callback is still running is skipped,
+ *  and a client failing or missing the deadline too many times in a row is evicted
+*/
+public class LobbyBroadcaster extends Thread
+{
+	/* minimum time between two updates, in milliseconds */
+	private long interval;
+	/* executor of the callbacks */
+	private Executor callback_executor;
+	/* deadline of a callback, in nanoseconds */
+	private long timeout;
+	/* number of consecutive failures evicting a client */
+	private int max_failures;
+	/* completion times of the fan-outs */
+	private FanOutStats stats;
+	/* last state of each match changed since the previous update */
+	private LinkedHashMap<String, LobbyUpdate> pending;
+	/* sequence number of the first change not yet sent */
+	private long first = 0;
+	/* sequence number of the last change not yet sent */
+	private long last = 0;
+	/* clients waiting for the whole lobby: the new ones and the ones which have skipped an update */
+	private HashMap<String, ClientInfo> resync;
+
+	/* mutual exclusion object for the pending changes */
+	private final ReentrantLock DIRTY = new ReentrantLock();
+	/* signaled when there is something to send */
+	private final Condition CHANGED = DIRTY.newCondition();
+
+	/* number of fan-outs between two logs of the completion times */
+	private static final int STATS_PERIOD = 100;
+
+	/** create the dispatcher
+	 * 
+	 * @param interval				minimum time between two updates, in milliseconds
+	 * @param callback_executor		executor of the callbacks
+	 * @param timeout				deadline of a callback, in milliseconds
+	 * @param max_failures			number of consecutive failures evicting a client
+	*/
+	public LobbyBroadcaster( final long interval, final Executor callback_executor, final long timeout, final int max_failures )
+	{
+		super( "LobbyBroadcaster" );
+		setDaemon( true );
+
+		this.interval = interval;
+		this.callback_executor = callback_executor;
+		this.timeout = timeout * 1000000;
+		this.max_failures = max_failures;
+
+		stats = new FanOutStats();
+
+		pending = new LinkedHashMap<String, LobbyUpdate>();
+		resync = new HashMap<String, ClientInfo>();
+	}
+
+	/** record a change of the lobby; it must be invoked in order of sequence number
+	 * 
+	 * @param update	the change
+	*/
+	public void changed( final LobbyUpdate update )
+	{
+		DIRTY.lock();
+
+		if(pending.isEmpty())
+			first = update.getSequence();
+		last = update.getSequence();
+
+		// the older state of the match is replaced, so the new one goes at the end of the list
+		pending.remove( update.getMaster() );
+		pending.put( update.getMaster(), update );
+
+		CHANGED.signal();
+
+		DIRTY.unlock();
+	}
+
+	/** send the list of matches to a client which has just logged in
+	 * 
+	 * @param user		the client username
+	 * @param client	the client informations
+	*/
+	public void welcome( final String user, final ClientInfo client )
+	{
+		DIRTY.lock();
+
+		resync.put( user, client );
+		CHANGED.signal();
+
+		DIRTY.unlock();
+	}
+
+	@Override
+	public void run()
+	{
+		long last_update = 0;
+
+		while(true){
+			DIRTY.lock();
+
+			while(pending.isEmpty() && resync.isEmpty())
+				CHANGED.awaitUninterruptibly();
+
+			DIRTY.unlock();
+
+			// the changes arrived during the interval are merged in the same update
+			long wait = last_update + interval - System.currentTimeMillis();
+			if(wait > 0){
+				try{ Thread.sleep( wait ); }
+				catch( InterruptedException e ){}
+			}
+
+			DIRTY.lock();
+
+			LobbyChanges changes = null;
+			if(!pending.isEmpty()){
+				changes = new LobbyChanges( first, last, pending.values().toArray( new LobbyUpdate[pending.size()] ) );
+				pending.clear();
+			}
+
+			HashMap<String, ClientInfo> resync_clients = null;
+			if(!resync.isEmpty()){
+				resync_clients = resync;
+				resync = new HashMap<String, ClientInfo>();
+			}
+
+			DIRTY.unlock();
+
+			last_update = System.currentTimeMillis();
+
+			dispatch( changes, resync_clients );
+		}
+	}
+
+	/** send an update to every client in the lobby
+	 * 
+	 * @param changes			the coalesced changes, null if the lobby is not changed
+	 * @param resync_clients	the clients which must receive the whole lobby, null if there aren't
+	*/
+	private void dispatch( final LobbyChanges changes, final HashMap<String, ClientInfo> resync_clients )
+	{
+		String m_string = null;
+		LobbyChanges complete = null;
+
+		// the dispatcher holds a count until every callback is submitted
+		final long start = System.nanoTime();
+		final AtomicInteger remaining = new AtomicInteger( 1 );
+
+		HashMap<String, ClientInfo> clients = (changes == null) ? resync_clients : Registry.getUsers();
+
+		Iterator<String> it = clients.keySet().iterator();
+		while(it.hasNext()){
+			final String user = it.next();
+			final ClientInfo client = clients.get( user );
+
+			if(client.isInMatch())
+				continue;
+
+			boolean whole = resync_clients != null && resync_clients.containsKey( user );
+			final LobbyChanges update;
+			if(client.hasDeltas()){
+				if(whole && complete == null)
+					complete = new LobbyChanges( Lobby.snapshot() );
+
+				update = whole ? complete : changes;
+			}
+			else{
+				if(m_string == null)
+					m_string = Lobby.toText();
+
+				update = null;
+			}
+
+			// a slow client doesn't accumulate callbacks: once the running one is over it receives the whole lobby
+			if(!client.startCallback())
+				continue;
+
+			remaining.incrementAndGet();
+
+			final String matches = m_string;
+			callback_executor.execute( new Runnable(){
+				@Override
+				public void run()
+				{
+					sendUpdate( user, client, update, matches );
+
+					if(remaining.decrementAndGet() == 0)
+						completed( start );
+				}
+			} );
+		}
+
+		if(remaining.decrementAndGet() == 0)
+			completed( start );
+	}
+
+	/** record the completion of a fan-out
+	 * 
+	 * @param start		start time of the fan-out, in nanoseconds
+	*/
+	private void completed( final long start )
+	{
+		stats.record( System.nanoTime() - start );
+
+		if(stats.getCount() % STATS_PERIOD == 0)
+			System.out.println( "[BROADCASTER]: FAN-OUT COMPLETION " + stats.toString() );
+	}
+
+	/** return the completion times of the fan-outs */
+	public FanOutStats getStats()
+	{
+		return stats;
+	}
+
+	/** send an update to a client, evicting it if it fails too many times in a row
+	 * 
+	 * @param user		the client username
+	 * @param client	the client informations
+	 * @param changes	the changes of the lobby, null to send the whole list
+	 * @param matches	string representing the matches
+	*/
+	private void sendUpdate( final String user, final ClientInfo client, final LobbyChanges changes, final String matches )
+	{
+		long begin = System.nanoTime();
+		boolean success;
+
+		try{
+			if(changes != null)
+				client.getCallback().updateLobby( changes );
+			else
+				client.getCallback().updateMatches( matches );
+
+			success = true;
+		}
+		catch( RemoteException e ){
+			success = false;
+		}
+
+		long elapsed = System.nanoTime() - begin;
+
+		// a callback completed after the deadline counts as a failure
+		if(client.endCallback( elapsed, success && elapsed <= timeout ) >= max_failures){
+			Registry.removeUser( user, client );
+			System.out.println( "[BROADCASTER]: CLIENT " + user + " EVICTED (AVERAGE LATENCY " + client.getLatency() / 1000000 + " ms)" );
+		}
+		else if(client.takeMissed()){
+			// an update has been skipped during the callback
+			DIRTY.lock();
+
+			resync.put( user, client );
+			CHANGED.signal();
+
+			DIRTY.unlock();
+		}
+	}
+}
\ No newline at end of file
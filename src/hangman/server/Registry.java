@@ -5,24 +5,23 @@
 package hangman.server;
 
 import hangman.client.IRemoteClient;
+import hangman.utils.LobbySnapshot;
+import hangman.utils.Match;
 import hangman.utils.Message;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -33,25 +32,39 @@ public class Registry extends UnicastRemoteObject implements IRemoteServer
 	/* configuration object */
 	private static JSONObject config_obj;
 	/* maximum number of open matches */
-	public static int max_matches;
-	/* object representing the JSON accounts */
-	private JSONObject accounts;
-	/* list of connected clients */
-	public static HashMap<String, ClientInfo> users;
+	public static volatile int max_matches;
+	/* maximum number of users */
+	public static int max_users;
+	/* the accounts */
+	private AccountStore accounts;
+	/* directory of the connected clients */
+	public static SessionDirectory users;
+	/* executor of the RMI callbacks */
+	private static Executor callback_executor;
+	/* dispatcher of the lobby updates */
+	private static LobbyBroadcaster broadcaster;
 
 	/* generated serial ID */
 	private static final long serialVersionUID = -2148039017274476724L;
-	/* maximum number of users */
-	private static final int MAX_USERS = 32;
-	/* mutual exclusion objects */
-	private static final ReentrantLock LOGIN = new ReentrantLock(), REGISTER = new ReentrantLock();
+	/* path of the configuration file */
+	private static final String CONFIG = "./server_config.json";
+	/* path of the JSON accounts, imported once into the index */
+	private static final String ACCOUNTS = "./accounts.json";
+	/* path of the accounts index */
+	private static final String INDEX = "./accounts.idx";
+	/* path of the accounts journal */
+	private static final String JOURNAL = "./accounts.journal";
 
 	public Registry() throws FileNotFoundException, IOException, ParseException
 	{
-		users = new HashMap<String, ClientInfo>( MAX_USERS );
+		users = new SessionDirectory( max_users );
 
-		// load the accounts
-		accounts = (JSONObject) new JSONParser().parse( new FileReader( "./accounts.json" ) );
+		if(!new File( INDEX ).exists())
+			AccountImporter.importAccounts( ACCOUNTS, INDEX );
+
+		// open the accounts: the changes are appended to the journal, and the index is synced at the checkpoints
+		accounts = new AccountStore( INDEX, JOURNAL, Long.parseLong( (String) config_obj.get( "Journal Size" ) ) );
+		accounts.start();
 	}
 
 	public static void main( final String argv[] ) throws FileNotFoundException, ParseException, IOException
@@ -63,7 +76,14 @@ public class Registry extends UnicastRemoteObject implements IRemoteServer
 		}
 
 		// load the configurations
-		config_obj = (JSONObject) new JSONParser().parse( new FileReader( "./server_config.json" ) );
+		config_obj = (JSONObject) new JSONParser().parse( new FileReader( CONFIG ) );
+
+		max_users = Integer.parseInt( (String) config_obj.get( "Max Users" ) );
+
+		// an unreachable client makes its callback fail within the deadline, instead of the default timeouts of the RMI
+		String callback_timeout = (String) config_obj.get( "Callback Timeout" );
+		System.setProperty( "sun.rmi.transport.proxy.connectTimeout", callback_timeout );
+		System.setProperty( "sun.rmi.transport.tcp.responseTimeout", callback_timeout );
 
 		System.setProperty( "java.rmi.server.hostname", InetAddress.getLocalHost().getHostAddress() );
 		Registry objServer = new Registry();
@@ -73,129 +93,159 @@ public class Registry extends UnicastRemoteObject implements IRemoteServer
 		max_matches = Integer.parseInt( (String) config_obj.get( "Max Matches" ) );
 		Worker.init();
 
-		ServerSocket socket = null;
-		Executor thread_pool = Executors.newFixedThreadPool( MAX_USERS );
+		// the games of the masters supplying their word are run by the server
+		GameEngine.init( Integer.parseInt( (String) config_obj.get( "Game Engines" ) ) );
 
-		try{
-			socket = new ServerSocket( Integer.parseInt( (String) config_obj.get( "TCP port" ) ) );
-		}catch( IOException e ){
-			e.printStackTrace();
-			return;
+		// the limits and the channels can be changed without restarting the server
+		new ConfigWatcher( CONFIG, Match.SETTINGS ).start();
+
+		int tcp_port = Integer.parseInt( (String) config_obj.get( "TCP port" ) );
+
+		if(((String) config_obj.get( "Server Mode" )).equals( "virtual" ))
+			// every callback runs on its own virtual thread
+			callback_executor = newVirtualExecutor();
+		else
+			callback_executor = Executors.newFixedThreadPool( Integer.parseInt( (String) config_obj.get( "Callback Threads" ) ) );
+
+		broadcaster = new LobbyBroadcaster( Long.parseLong( (String) config_obj.get( "Lobby Interval" ) ), callback_executor,
+											Long.parseLong( callback_timeout ), Integer.parseInt( (String) config_obj.get( "Max Callback Failures" ) ) );
+		Lobby.setBroadcaster( broadcaster );
+		broadcaster.start();
+
+		if(((String) config_obj.get( "Server Mode" )).equals( "selector" )){
+			// the connections are served by a few non-blocking loops
+			try{
+				EventLoop.serve( tcp_port, Integer.parseInt( (String) config_obj.get( "Event Loops" ) ), max_users );
+			}catch( IOException e ){
+				e.printStackTrace();
+			}
 		}
+		else{
+			ServerSocket socket = null;
+			Executor thread_pool;
 
-		System.out.println( "[MAIN]: SERVER READY" );
+			if(((String) config_obj.get( "Server Mode" )).equals( "virtual" ))
+				// every worker runs on its own virtual thread
+				thread_pool = newVirtualExecutor();
+			else
+				thread_pool = Executors.newFixedThreadPool( max_users );
 
-		try{
-			while(true){
-				// run a new execution of a server worker
-				thread_pool.execute( new Worker( socket.accept() ) );
+			try{
+				socket = new ServerSocket( tcp_port );
+			}catch( IOException e ){
+				e.printStackTrace();
+				return;
+			}
+
+			System.out.println( "[MAIN]: SERVER READY" );
+
+			try{
+				while(true){
+					// run a new execution of a server worker
+					thread_pool.execute( new Worker( socket.accept() ) );
+				}
+			}catch( Exception e ){
+				e.printStackTrace();
+			}
+
+			try{
+				socket.close();
+			}catch( IOException e ){
+				e.printStackTrace();
 			}
-		}catch( Exception e ){
-			e.printStackTrace();
 		}
 
+		System.out.println( "[MAIN]: SERVER CLOSED" );
+	}
+
+	/** load again the settings of the configuration file which can change at runtime */
+	static void reloadConfig() throws IOException, ParseException
+	{
+		JSONObject obj = (JSONObject) new JSONParser().parse( new FileReader( CONFIG ) );
+
+		max_matches = Integer.parseInt( (String) obj.get( "Max Matches" ) );
+	}
+
+	/** check if the running JVM supports virtual threads */
+	public static boolean supportsVirtualThreads()
+	{
 		try{
-			socket.close();
-		}catch( IOException e ){
-			e.printStackTrace();
+			Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return true;
+		}catch( NoSuchMethodException e ){
+			return false;
 		}
+	}
 
-		System.out.println( "[MAIN]: SERVER CLOSED" );
+	/** create an executor which starts a new virtual thread for each task.
+	 *  If the running JVM doesn't support virtual threads a cached pool of platform threads is returned
+	*/
+	public static ExecutorService newVirtualExecutor()
+	{
+		try{
+			return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+		}catch( ReflectiveOperationException e ){
+			System.out.println( "[MAIN]: VIRTUAL THREADS NOT SUPPORTED, USING PLATFORM THREADS" );
+			return Executors.newCachedThreadPool();
+		}
 	}
 
 	@Override
 	public int checkLogin( final String username, final String password, final IRemoteClient callback ) throws RemoteException
 	{
-		LOGIN.lock();
-
-		if(users.containsKey( username )){
-			LOGIN.unlock();
+		if(users.contains( username ))
 			return Message.ACCOUNT_ALREADY_IN_USE;
-		}
 
-		String acc_pwd = (String) accounts.get( username );
-		if(acc_pwd == null){
-			LOGIN.unlock();
+		String acc_pwd = accounts.get( username );
+		if(acc_pwd == null)
 			return Message.ACCOUNT_DOESNT_EXIST;
-		}
 
-		if(acc_pwd.equals( password )){
-			if(users.size() == MAX_USERS){
-				LOGIN.unlock();
-				return Message.SERVER_FULL;
-			}
-
-			users.put( username, new ClientInfo( callback ) );
+		if(!acc_pwd.equals( password ))
+			return Message.PASSWORD_INCORRECT;
 
-			LOGIN.unlock();
+		ClientInfo client = new ClientInfo( callback );
+		switch( users.claim( username, client ) ){
+			case( -1 ):
+				return Message.ACCOUNT_ALREADY_IN_USE;
 
-			try{
-				updateMatches( callback );
-			}
-			catch( RemoteException e ){
-				e.printStackTrace();
-				logout( username );
-				return Message.SERVER_ERROR;
-			}
-
-			System.out.println( "[RMI SERVER]: CLIENT " + username + " IS CONNECTED" );
-
-			return Message.LOGIN_OK;
+			case( -2 ):
+				return Message.SERVER_FULL;
 		}
 
-		LOGIN.unlock();
+		// the list of matches is sent by the broadcaster, so the login doesn't wait for the callback
+		broadcaster.welcome( username, client );
+
+		System.out.println( "[RMI SERVER]: CLIENT " + username + " IS CONNECTED" );
 
-		return Message.PASSWORD_INCORRECT;
+		return Message.LOGIN_OK;
 	}
 
 	@Override
 	public void logout( final String username )
 	{
-		LOGIN.lock();
-
 		users.remove( username );
 
-		LOGIN.unlock();
-
 		System.out.println( "[RMI SERVER]: CLIENT " + username + " IS DISCONNECTED" );
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public int registerAccount( final String username, final String password, final IRemoteClient callback ) throws RemoteException
 	{
-		REGISTER.lock();
-
-		if(accounts.containsKey( username )){
-			REGISTER.unlock();
-			return Message.ACCOUNT_ALREADY_REGISTERED;
-		}
-
-		accounts.put( username, password );
+		// concurrent registrations are made durable by the same write of the journal
+		switch( accounts.register( username, password ) ){
+			case( -1 ):
+				return Message.ACCOUNT_ALREADY_REGISTERED;
 
-		if(saveAccounts() == -1){
-			REGISTER.unlock();
-			accounts.remove( username );
-			logout( username );
-			return Message.SERVER_ERROR;
+			case( -2 ):
+				logout( username );
+				return Message.SERVER_ERROR;
 		}
 
-		REGISTER.unlock();
-
-		LOGIN.lock();
-
-		users.put( username, new ClientInfo( callback ) );
-
-		LOGIN.unlock();
+		ClientInfo client = new ClientInfo( callback );
+		if(users.claim( username, client ) != 0)
+			return Message.SERVER_FULL;
 
-		try{
-			updateMatches( callback );
-		}
-		catch( RemoteException e ){
-			e.printStackTrace();
-			logout( username );
-			return Message.SERVER_ERROR;
-		}
+		broadcaster.welcome( username, client );
 
 		System.out.println( "[RMI SERVER]: ACCOUNT " + username + " CREATED" );
 
@@ -205,76 +255,58 @@ public class Registry extends UnicastRemoteObject implements IRemoteServer
 	@Override
 	public int deleteAccount( final String username ) throws RemoteException
 	{
-		REGISTER.lock();
-
-		accounts.remove( username );
-
-		if(saveAccounts() == -1){
-			REGISTER.unlock();
+		if(accounts.delete( username ) == -2){
 			logout( username );
 			return Message.SERVER_ERROR;
 		}
 
-		REGISTER.unlock();
-
 		System.out.println( "[RMI SERVER]: ACCOUNT " + username + " DELETED" );
 
 		return Message.ACCOUNT_DELETED;
 	}
 
-	/** save the JSON object to the corresponding file
-	 * 
-	 * @return 0 if everything is ok, -1 if some error occurs
-	*/
-	private int saveAccounts()
+	@Override
+	public void getMatches( final IRemoteClient remote_client ) throws RemoteException
 	{
-		try{
-			PrintWriter file = new PrintWriter( new FileWriter( "./accounts.json" ) );
-			file.write( accounts.toJSONString() );
-			file.close();
-		}catch( IOException e ){
-			e.printStackTrace();
-			return -1;
-		}
-
-		return 0;
+		updateMatches( remote_client );
 	}
 
 	@Override
-	public void getMatches( final IRemoteClient remote_client ) throws RemoteException
+	public LobbySnapshot getLobby( final String username, final long sequence ) throws RemoteException
 	{
-		updateMatches( remote_client );
+		ClientInfo client = users.get( username );
+
+		// from now on the client receives only the changes of the lobby
+		if(client != null)
+			client.setDeltas( true );
+
+		LobbySnapshot snapshot = Lobby.snapshot();
+
+		return (snapshot.getSequence() == sequence) ? null : snapshot;
 	}
 
-	/** update the matches to one or every user of the server
+	/** send the list of matches to a client
 	 * 
-	 * @param remote_client  if the value of this parameter is null the update will be sent to every user,
-	 * 						 otherwise only to the one specified by the parameter
+	 * @param remote_client  object used for the RMI callback
 	*/
 	public static void updateMatches( final IRemoteClient remote_client ) throws RemoteException
 	{
-		String m_string = Worker.getStringMatches();
+		remote_client.updateMatches( Lobby.toText() );
+	}
 
-		if(remote_client != null)
-			remote_client.updateMatches( m_string );
-		else{
-			LOGIN.lock();
-
-			Iterator<String> it = new HashSet<String>( users.keySet() ).iterator();
-			String user;
-			while(it.hasNext()){
-				ClientInfo client = users.get( user = it.next() );
-				if(!client.isInMatch()){
-					try{
-						client.getCallback().updateMatches( m_string );
-					}
-					catch( RemoteException e ){
-						users.remove( user );
-					}
-				}
-			}
+	/** return a snapshot of the connected clients, which must not be modified */
+	static HashMap<String, ClientInfo> getUsers()
+	{
+		return users.snapshot();
+	}
 
-			LOGIN.unlock();
-		}
+	/** remove a client which is not reachable
+	 * 
+	 * @param user		the client username
+	 * @param client	the client informations, so a new login of the same user is not removed
+	*/
+	static void removeUser( final String user, final ClientInfo client )
+	{
+		users.remove( user, client );
 	}
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Concurrent directory of the logged clients.
+ *  A username is claimed atomically and the capacity is reserved with a CAS on a counter,
+ *  so the logins don't serialize on a global lock.
+ *  The snapshot used by the broadcasts is a copy of the directory, built only when it is changed
+*/
+public class SessionDirectory
+{
+	/* the sessions, indexed by username */
+	private ConcurrentHashMap<String, ClientInfo> sessions;
+	/* number of sessions, including the ones being claimed */
+	private AtomicInteger size;
+	/* maximum number of sessions */
+	private int capacity;
+	/* number of changes of the directory */
+	private AtomicInteger version;
+	/* last snapshot */
+	private volatile Snapshot snapshot;
+
+	/** create an empty directory
+	 * 
+	 * @param capacity	maximum number of sessions
+	*/
+	public SessionDirectory( final int capacity )
+	{
+		this.capacity = capacity;
+
+		sessions = new ConcurrentHashMap<String, ClientInfo>( capacity );
+		size = new AtomicInteger( 0 );
+		version = new AtomicInteger( 0 );
+	}
+
+	/** claim a username, if it is free and the directory is not full
+	 * 
+	 * @param username	the username
+	 * @param client	the client informations
+	 * 
+	 * @return 0 if the username is claimed, -1 if it is already used, -2 if the directory is full
+	*/
+	public int claim( final String username, final ClientInfo client )
+	{
+		// reserve a place
+		int current;
+		do{
+			current = size.get();
+			if(current >= capacity)
+				return -2;
+		}while(!size.compareAndSet( current, current + 1 ));
+
+		if(sessions.putIfAbsent( username, client ) != null){
+			size.decrementAndGet();
+			return -1;
+		}
+
+		version.incrementAndGet();
+
+		return 0;
+	}
+
+	/** return the session of a user
+	 * 
+	 * @param username	the username
+	 * 
+	 * @return the client informations, null if the user is not logged
+	*/
+	public ClientInfo get( final String username )
+	{
+		return sessions.get( username );
+	}
+
+	/** check if a username is used
+	 * 
+	 * @param username	the username
+	*/
+	public boolean contains( final String username )
+	{
+		return sessions.containsKey( username );
+	}
+
+	/** remove the session of a user
+	 * 
+	 * @param username	the username
+	*/
+	public void remove( final String username )
+	{
+		if(sessions.remove( username ) != null){
+			size.decrementAndGet();
+			version.incrementAndGet();
+		}
+	}
+
+	/** remove the session of a user only if it is still the specified one,
+	 *  so an old session doesn't remove the new login of the same user
+	 * 
+	 * @param username	the username
+	 * @param client	the client informations of the session
+	*/
+	public void remove( final String username, final ClientInfo client )
+	{
+		if(sessions.remove( username, client )){
+			size.decrementAndGet();
+			version.incrementAndGet();
+		}
+	}
+
+	/** return the number of sessions */
+	public int size()
+	{
+		return sessions.size();
+	}
+
+	/** return a copy of the directory, which must not be modified; it is shared until the next change */
+	public HashMap<String, ClientInfo> snapshot()
+	{
+		int current = version.get();
+		Snapshot last = snapshot;
+		if(last != null && last.version == current)
+			return last.sessions;
+
+		// a change made during the copy increases the version, so the copy is rebuilt by the next call
+		last = new Snapshot( current, new HashMap<String, ClientInfo>( sessions ) );
+		snapshot = last;
+
+		return last.sessions;
+	}
+
+	/** copy of the directory with the version it was built from */
+	private static class Snapshot
+	{
+		/* version of the directory */
+		private final int version;
+		/* the copied sessions */
+		private final HashMap<String, ClientInfo> sessions;
+
+		public Snapshot( final int version, final HashMap<String, ClientInfo> sessions )
+		{
+			this.version = version;
+			this.sessions = sessions;
+		}
+	}
+}
\ No newline at end of file
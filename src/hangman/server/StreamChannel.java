@@ -0,0 +1,159 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.server;
+
+import hangman.utils.LobbyCodec;
+import hangman.utils.LobbyMessage;
+import hangman.utils.TimerWheel;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Output channel of a blocking connection, used when the workers run on their own thread.
+ *  The messages, views of the bytes shared among all their receivers, are put in a bounded queue
+ *  written by a writer thread, so the lobby never waits for the socket: a client which doesn't read
+ *  its messages is disconnected when the queue is full. The writer batches the queued messages:
+ *  they are copied in the buffer of the socket stream, which is written when it is full and at the end of the queue.
+ *  The channel owns the socket, closed once the queue is written
+*/
+public class StreamChannel implements IOutputChannel, Runnable
+{
+	/* the socket of the connection */
+	private Socket socket;
+	/* socket output stream */
+	private OutputStream socket_out;
+	/* channel copying the messages in the buffer of the socket output stream */
+	private WritableByteChannel batch;
+	/* messages waiting to be written */
+	private ArrayBlockingQueue<ByteBuffer> queue;
+	/* protocol spoken by the client */
+	private volatile int version = LobbyCodec.LEGACY;
+	/* determines if the socket must be closed once the queue is written */
+	private volatile boolean closing = false;
+	/* determines if the socket is closed */
+	private volatile boolean closed = false;
+
+	/* size of the buffer batching the messages */
+	private static final int BATCH_SIZE = 8192;
+	/* maximum number of messages waiting to be written */
+	private static final int MAX_QUEUED_MESSAGES = 64;
+	/* time given to a closed channel to write its queue, in milliseconds */
+	private static final int CLOSE_TIMEOUT = 5000;
+	/* the writers of the queues, a virtual thread for each one when they are supported */
+	private static final Executor WRITERS = Registry.newVirtualExecutor();
+
+	/* determines if a writer is running or submitted */
+	private final AtomicBoolean WRITING = new AtomicBoolean( false );
+
+	public StreamChannel( final Socket socket ) throws IOException
+	{
+		this.socket = socket;
+		// the queued messages are already batched in a single write: they must not wait for the ack of the previous ones
+		socket.setTcpNoDelay( true );
+		socket_out = new BufferedOutputStream( socket.getOutputStream(), BATCH_SIZE );
+		batch = Channels.newChannel( socket_out );
+		queue = new ArrayBlockingQueue<ByteBuffer>( MAX_QUEUED_MESSAGES );
+
+		// the stream header is always sent: the client announces its protocol only later
+		socket_out.write( LobbyCodec.streamHeader() );
+		socket_out.flush();
+	}
+
+	@Override
+	public void setVersion( final int version )
+	{
+		this.version = version;
+	}
+
+	@Override
+	public void writeMessage( final LobbyMessage message ) throws IOException
+	{
+		if(closing || closed)
+			throw new IOException( "connection closed" );
+
+		if(!queue.offer( message.getFrame( version ) )){
+			System.out.println( "[SERVER]: THE CLIENT " + socket.getRemoteSocketAddress() + " DOESN'T READ ITS MESSAGES" );
+			// the reader of the worker fails, and the session is closed
+			terminate();
+			throw new IOException( "output queue full" );
+		}
+
+		submit();
+	}
+
+	/** start a writer, if none is running */
+	private void submit()
+	{
+		if(WRITING.compareAndSet( false, true ))
+			WRITERS.execute( this );
+	}
+
+	@Override
+	public void run()
+	{
+		// a message queued after the writer has seen the queue empty is written by the same writer, or by a new one
+		do{
+			write();
+			WRITING.set( false );
+		}while(!closed && (!queue.isEmpty() || closing) && WRITING.compareAndSet( false, true ));
+	}
+
+	/** write the queued messages, closing the socket if requested */
+	private void write()
+	{
+		try{
+			// the socket is written when the buffer is full and at the end of the queue
+			ByteBuffer frame;
+			while((frame = queue.poll()) != null){
+				while(frame.hasRemaining())
+					batch.write( frame );
+			}
+			socket_out.flush();
+		}catch( IOException e ){
+			terminate();
+			return;
+		}
+
+		if(closing && queue.isEmpty())
+			terminate();
+	}
+
+	@Override
+	public void close()
+	{
+		if(closed)
+			return;
+
+		// the socket is closed by the writer once the pending messages are written
+		closing = true;
+		submit();
+
+		// a client which doesn't read is not waited forever
+		TimerWheel.getShared().schedule( new Runnable(){
+			@Override
+			public void run()
+			{
+				terminate();
+			}
+		}, CLOSE_TIMEOUT );
+	}
+
+	/** close the socket, discarding the pending messages */
+	private void terminate()
+	{
+		closed = true;
+		queue.clear();
+		try{ socket.close(); }
+		catch( IOException e ){}
+	}
+}
\ No newline at end of file
@@ -4,44 +4,63 @@
 
 package hangman.server;
 
+import hangman.utils.ChannelLease;
+import hangman.utils.GamePacket;
+import hangman.utils.LobbyCodec;
+import hangman.utils.LobbyMessage;
 import hangman.utils.Match;
 import hangman.utils.Message;
+import hangman.utils.TimerWheel;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.rmi.RemoteException;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
 public class Worker implements Runnable
 {
-	/* the associated socket */
-	private Socket socket;
-	/* socket input stream */
-	private BufferedReader in;
-	/* socket output stream */
-	private ObjectOutputStream out;
+	/* socket input stream (blocking execution only) */
+	private DataInputStream in;
+	/* socket output interface */
+	private IOutputChannel out;
 	/* the associated username */
 	private String username;
+	/* session of the user */
+	private ClientInfo client;
+	/* protocol spoken by the client */
+	private int version = LobbyCodec.LEGACY;
 	/* determines if the user is a master */
 	private boolean isMaster = false;
 	/* the associated match */
 	private Match match;
+	/* deadline of the session, null once the session is over */
+	private TimerWheel.Timeout deadline;
+	/* determines if the session is over */
+	private volatile boolean over = false;
+	/* mutual exclusion object for the requests and the deadline of the session */
+	private final ReentrantLock SESSION = new ReentrantLock();
 	/* list of matches */
-	private static HashMap<String, Match> matches;
+	private static ConcurrentHashMap<String, Match> matches;
+	/* deadlines of the sessions */
+	private static TimerWheel deadlines;
+	/* number of open matches, including the ones being created */
+	private static final AtomicInteger OPEN_MATCHES = new AtomicInteger( 0 );
 	/* determines if the worker has been initialized */
 	private static boolean is_init = false;
 
-	/* mutual exclusion object for match management */
-	private static final ReentrantLock MATCH = new ReentrantLock();
+	/* duration of a session: the clients leave after 5 minutes, so the server waits some more */
+	private static final long TIME_SESSION = 5 * 60 * 1000 + 30 * 1000;
+	/* duration of a tick of the deadlines, in milliseconds */
+	private static final int DEADLINE_TICK = 100;
+	/* number of buckets of the deadlines, covering a whole session */
+	private static final int DEADLINE_BUCKETS = 4096;
 
 	/** Creates a new instance of a worker thread.
 	 *  Be sure to have invoked the Worker.init() method to initialize its internal structures
@@ -49,19 +68,44 @@ public class Worker implements Runnable
 	 * @throws InitException if the method Worker.init() has not been invoked
 	*/
 	public Worker( final Socket socket ) throws IOException, InitException
+	{
+		this( new StreamChannel( socket ) );
+
+		in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+	}
+
+	/** Creates a new instance of a worker driven by an external I/O layer,
+	 *  which must pass every received line to the processMessage() method
+	 *  and, once the binary protocol is selected, every frame to the processRequest() one.
+	 *  Be sure to have invoked the Worker.init() method to initialize its internal structures
+	 * 
+	 * @param out	output interface of the connection
+	 * 
+	 * @throws InitException if the method Worker.init() has not been invoked
+	*/
+	public Worker( final IOutputChannel out ) throws InitException
 	{
 		if(!is_init)
 			throw new InitException();
 
-		this.socket = socket;
-		in = new BufferedReader( new InputStreamReader( socket.getInputStream() ) );
-		out = new ObjectOutputStream( socket.getOutputStream() );
+		this.out = out;
+
+		// the server doesn't rely on the client to end the session, also if it never says hello
+		deadline = deadlines.schedule( new Runnable(){
+			@Override
+			public void run()
+			{
+				expire();
+			}
+		}, TIME_SESSION );
 	}
 
 	/** initialize the internal structures */
 	public static void init() throws FileNotFoundException, IOException, ParseException
 	{
-		matches = new HashMap<String, Match>( Registry.max_matches );
+		matches = new ConcurrentHashMap<String, Match>( Registry.max_matches );
+		deadlines = new TimerWheel( "SessionDeadlines", DEADLINE_TICK, DEADLINE_BUCKETS );
+		deadlines.start();
 		is_init = true;
 		Match.init();
 	}
@@ -73,156 +117,323 @@ public class Worker implements Runnable
 		boolean close = false;
 
 		try{
-			if((message = in.readLine()) == null)
-				return;
+			// the hello message is always a text line
+			if((message = LobbyCodec.readLine( in )) != null)
+				close = processMessage( message );
+
+			if(version == LobbyCodec.LEGACY){
+				while(!close && (message = LobbyCodec.readLine( in )) != null)
+					close = processMessage( message );
+			}
 			else{
-				if(message.charAt( 0 ) == Message.HELLO)
-					username = message.substring( 1 );
-				else
-					return;
+				byte frame[] = new byte[LobbyCodec.MAX_FRAME_SIZE];
+				int length;
+				while(!close && (length = LobbyCodec.readFrame( in, frame )) != -1)
+					close = processRequest( LobbyCodec.requestType( frame, 0 ), LobbyCodec.requestArgument( frame, 0, length ) );
 			}
+		}catch( Exception e ){
+			// the connection of an expired session is closed under the reader
+			if(!over)
+				e.printStackTrace();
+		}
 
-			Registry.users.get( username ).setInMatch( true );
+		disconnect( close );
+
+		// the socket is closed by the channel, once the last messages are written
+		out.close();
+
+		System.out.println( "[WORKER-" + username + "]: CLOSED" );
+	}
+
+	/** process a line received from a client
+	 * 
+	 * @param message	the received line
+	 * 
+	 * @return TRUE if the connection must be closed, FALSE otherwise
+	*/
+	public boolean processMessage( final String message ) throws IOException
+	{
+		if(message.length() == 0)
+			return false;
+
+		if(username == null){
+			// the first message must be the hello one, containing the username
+			if(message.charAt( 0 ) != Message.HELLO)
+				return true;
+
+			client = Registry.users.get( LobbyCodec.helloUsername( message ) );
+			if(client == null || LobbyCodec.helloVersion( message ) > LobbyCodec.VERSION)
+				return true;
+
+			username = LobbyCodec.helloUsername( message );
+			version = LobbyCodec.helloVersion( message );
+			out.setVersion( version );
+			client.setInMatch( true );
 
 			System.out.println( "[WORKER-" + username + "]: ACTIVATED" );
 
-			while(!close && (message = in.readLine()) != null){
-				switch( message.charAt( 0 ) ){
-					case( Message.MASTER ):
-						System.out.println( "[WORKER-" + username + "]: RECEIVED A MASTER REQUEST" );
-
-						int result = addMatch( Integer.parseInt( message.substring( 1 ) ) );
-						if(result == -1){
-							out.writeObject( createMessage( Message.NO_MORE_MATCH ) );
-							close = true;
-						}
-						else{
-							out.writeObject( createMessage( Message.MATCH_CREATED ) );
-							isMaster = true;
-						}
+			return false;
+		}
 
-						break;
+		return processRequest( message.charAt( 0 ), message.substring( 1 ) );
+	}
+
+	/** process a request received from the client
+	 * 
+	 * @param type		type of the request
+	 * @param argument	argument of the request
+	 * 
+	 * @return TRUE if the connection must be closed, FALSE otherwise
+	*/
+	public boolean processRequest( final char type, final String argument ) throws IOException
+	{
+		if(username == null)
+			return true;
 
-					case( Message.GUESSER ):
-						System.out.println( "[WORKER-" + username + "]: RECEIVED A GUESSER REQUEST" );
+		SESSION.lock();
 
-						switch( result = addUser( message.substring( 1 ) ) ){
-							case( 0 ):
-								System.out.println( "[WORKER-" + username + "]: ADDED TO MATCH" );
-								out.writeObject( createMessage( Message.ADDED_TO_MATCH ) );
-								break;
+		boolean close;
+		try{
+			// the deadline has already closed the session
+			if(over)
+				close = true;
+			else{
+				close = handleRequest( type, argument );
+				if(close)
+					endSession();
+			}
+		}finally{
+			SESSION.unlock();
+		}
 
-							case( -1 ):
-								out.writeObject( createMessage( Message.MASTER_DOESNT_EXIST ) );
-								close = true;
-								break;
+		return close;
+	}
 
-							case( -2 ):
-								out.writeObject( createMessage( Message.MATCH_ALREADY_CLOSED ) );
-								close = true;
-								break;
+	/** process a request of an active session (the lock must be held)
+	 * 
+	 * @param type		type of the request
+	 * @param argument	argument of the request
+	 * 
+	 * @return TRUE if the connection must be closed, FALSE otherwise
+	*/
+	private boolean handleRequest( final char type, final String argument ) throws IOException
+	{
+		boolean close = false;
 
-							case( -3 ):
-								out.writeObject( createMessage( Message.MATCH_FULL ) );
-								close = true;
-								break;
-						}
+		switch( type ){
+			case( Message.MASTER ):
+				System.out.println( "[WORKER-" + username + "]: RECEIVED A MASTER REQUEST" );
 
-						break;
+				// the session already leads or joins a match, which must not be lost
+				if(match != null)
+					break;
 
-					case( Message.START_MATCH ):
-						System.out.println( "[WORKER-" + username + "]: START MATCH" );
+				int users;
+				try{
+					users = Integer.parseInt( argument );
+				}catch( NumberFormatException e ){
+					users = 0;
+				}
 
-						if(isMaster){
-							match.startMatch();
-							removeMatch( false, true );
-						}
+				int result = addMatch( users );
+				if(result == -1){
+					out.writeMessage( LobbyMessage.get( Message.NO_MORE_MATCH ) );
+					close = true;
+				}
+				else{
+					out.writeMessage( LobbyMessage.get( Message.MATCH_CREATED ) );
+					isMaster = true;
+				}
 
-						close = true;
+				break;
 
-						break;
+			case( Message.WORD_TO_TELL ):
+				// the master supplies the word, so the game can be run by the server
+				if(isMaster && argument.length() > 0 && argument.length() <= GamePacket.MAX_WORD_LENGTH)
+					match.setWord( argument );
+
+				break;
+
+			case( Message.GUESSER ):
+				System.out.println( "[WORKER-" + username + "]: RECEIVED A GUESSER REQUEST" );
+
+				if(match != null)
+					break;
 
-					case( Message.EXIT ):
-						System.out.println( "[WORKER-" + username + "]: RECEIVED A LOGOUT REQUEST" );
+				switch( result = addUser( argument ) ){
+					case( 0 ):
+						System.out.println( "[WORKER-" + username + "]: ADDED TO MATCH" );
+						out.writeMessage( LobbyMessage.get( Message.ADDED_TO_MATCH ) );
+						break;
 
-						if(isMaster){
-							try{ removeMatch( true, true ); }
-							catch( RemoteException e1 ){}
-						}
-						else{
-							try{ removeUser(); }
-							catch( RemoteException e1 ){}
-						}
+					case( -1 ):
+						out.writeMessage( LobbyMessage.get( Message.MASTER_DOESNT_EXIST ) );
+						close = true;
+						break;
 
+					case( -2 ):
+						out.writeMessage( LobbyMessage.get( Message.MATCH_ALREADY_CLOSED ) );
 						close = true;
+						break;
 
+					case( -3 ):
+						out.writeMessage( LobbyMessage.get( Message.MATCH_FULL ) );
+						close = true;
 						break;
 				}
-			}
-		}catch( Exception e ){
-			e.printStackTrace();
+
+				break;
+
+			case( Message.START_MATCH ):
+				System.out.println( "[WORKER-" + username + "]: START MATCH" );
+
+				if(isMaster){
+					match.startMatch();
+					removeMatch( false );
+				}
+
+				close = true;
+
+				break;
+
+			case( Message.EXIT ):
+				System.out.println( "[WORKER-" + username + "]: RECEIVED A LOGOUT REQUEST" );
+
+				if(isMaster){
+					try{ removeMatch( true ); }
+					catch( RemoteException e1 ){}
+				}
+				else{
+					try{ removeUser(); }
+					catch( RemoteException e1 ){}
+				}
+
+				close = true;
+
+				break;
 		}
 
+		return close;
+	}
+
+	/** release the resources associated to the user when the connection is over
+	 * 
+	 * @param close		TRUE if the connection has been closed by the protocol, FALSE if it was lost
+	*/
+	public void disconnect( final boolean close )
+	{
 		System.out.println( "[WORKER-" + username + "]: USER " + username + " IS OFFLINE" );
 
-		if(!close && match != null){
-			if(isMaster){
-				try{ removeMatch( true, true ); }
-				catch( RemoteException e1 ){}
-			}
-			else{
-				try{ removeUser(); }
-				catch( RemoteException e1 ){}
-			}
+		SESSION.lock();
 
-			Registry.users.remove( username );
+		if(!close && !over && match != null){
+			leaveMatch();
+			Registry.users.remove( username, client );
 		}
 
-		try{
-			out.close();
-			in.close();
-			socket.close();
-		}catch( IOException e ){}
+		endSession();
 
-		System.out.println( "[WORKER-" + username + "]: CLOSED" );
+		SESSION.unlock();
 	}
 
-	/** creates a new TCP message
-	 * 
-	 * @param type	message type
-	*/
-	@SuppressWarnings("unchecked")
-	private JSONObject createMessage( final char type )
+	/** end the session whose time is over, as if the connection was lost (invoked by the deadlines' thread) */
+	private void expire()
 	{
-		JSONObject object = new JSONObject();
-		object.put( "type", type );
+		SESSION.lock();
+
+		if(over){
+			SESSION.unlock();
+			return;
+		}
+
+		System.out.println( "[WORKER-" + username + "]: SESSION EXPIRED" );
+
+		// the match is closed and its channel given back; the writes only queue the messages, so they don't block
+		if(match != null)
+			leaveMatch();
+		if(username != null)
+			Registry.users.remove( username, client );
+
+		endSession();
+
+		SESSION.unlock();
 
-		return object;
+		// the reader of the connection ends once the connection is closed
+		out.close();
+	}
+
+	/** remove the match of the master or the user from its match (the lock must be held) */
+	private void leaveMatch()
+	{
+		if(isMaster){
+			try{ removeMatch( true ); }
+			catch( RemoteException e1 ){}
+		}
+		else{
+			try{ removeUser(); }
+			catch( RemoteException e1 ){}
+		}
+	}
+
+	/** mark the session as over and cancel its deadline (the lock must be held) */
+	private void endSession()
+	{
+		over = true;
+
+		if(deadline != null){
+			deadline.cancel();
+			deadline = null;
+		}
+	}
+
+	/** return the username associated to the connection */
+	public String getUsername()
+	{
+		return username;
 	}
 
 	/** creates a new match
 	 * 
 	 * @param users		number of requested users
 	 * 
-	 * @return 0 if the match is created, -1 otherwise (the limit is reached)
+	 * @return 0 if the match is created, -1 otherwise (the request is not valid, the limit is reached or there isn't a free channel)
 	*/
 	private int addMatch( final int users ) throws RemoteException
 	{
-		match = new Match( users, username, out );
-
-		MATCH.lock();
+		// nothing is reserved for an invalid match
+		if(users <= 0 || users >= Registry.max_users)
+			return -1;
 
-		if(matches.size() == Registry.max_matches){
-			MATCH.unlock();
-			match = null;
+		// reserve a place
+		int current;
+		do{
+			current = OPEN_MATCHES.get();
+			if(current >= Registry.max_matches)
+				return -1;
+		}while(!OPEN_MATCHES.compareAndSet( current, current + 1 ));
+
+		ChannelLease lease = Match.acquireChannel();
+		if(lease == null){
+			// every channel is still used by a match
+			OPEN_MATCHES.decrementAndGet();
 			return -1;
 		}
 
-		matches.put( username, match );
-
-		MATCH.unlock();
+		boolean created = false;
+		try{
+			match = new Match( users, username, out, lease );
+			created = true;
+		}finally{
+			// the place and the channel are given back if the match cannot be built
+			if(!created){
+				lease.release();
+				OPEN_MATCHES.decrementAndGet();
+			}
+		}
 
-		Registry.updateMatches( null );
+		// the lobby knows the match before the guessers can find it
+		Lobby.matchAdded( username, users );
+		matches.put( username, match );
 
 		return 0;
 	}
@@ -230,21 +441,18 @@ public class Worker implements Runnable
 	/** removes the associated match
 	 * 
 	 * @param send_close	TRUE if the close message must be sent to the clients, FALSE otherwise
-	 * @param send_update	TRUE if the update must be sent to the clients, FALSE otherwise
 	*/
-	private void removeMatch( final boolean send_close, final boolean send_update ) throws RemoteException
+	private void removeMatch( final boolean send_close ) throws RemoteException
 	{
-		MATCH.lock();
-
-		matches.remove( username );
+		// the match is removed only once, also if the master leaves after the start or the deadline
+		if(!matches.remove( username, match ))
+			return;
 
-		MATCH.unlock();
+		OPEN_MATCHES.decrementAndGet();
+		Lobby.matchRemoved( username );
 
 		if(send_close)
 			match.closeMatch();
-
-		if(send_update)
-			Registry.updateMatches( null );
 	}
 
 	/** adds an user to the selected match
@@ -256,21 +464,15 @@ public class Worker implements Runnable
 	*/
 	private int addUser( final String master ) throws IOException
 	{
-		MATCH.lock();
-
 		match = matches.get( master );
-		if(match == null){
-			MATCH.unlock();
+		if(match == null)
 			return -1;
-		}
-
-		MATCH.unlock();
 
 		int result = match.addUser( out );
 		if(result != 0)
 			return result;
 		else
-			Registry.updateMatches( null );
+			Lobby.playersChanged( match.getMaster(), +1 );
 
 		return 0;
 	}
@@ -280,38 +482,6 @@ public class Worker implements Runnable
 	{
 		match.removeUser( out );
 
-		Registry.updateMatches( null );
-	}
-
-	/** returns the string representing the open matches */
-	public static String getStringMatches()
-	{
-		StringBuilder m_string = new StringBuilder( 64 );
-		int i = 0;
-
-		MATCH.lock();
-
-		m_string.append( "   " + matches.size() + " OPEN MATCHES" );
-
-		Iterator<String> it = matches.keySet().iterator();
-		while(it.hasNext()){
-			Match m = matches.get( it.next() );
-			m_string.append( "   MATCH " + (++i) + ": " + m.toString() + "\n" );
-		}
-
-		MATCH.unlock();
-
-		return m_string.toString();
-	}
-}
-
-class InitException extends Exception
-{
-	/* generated serial ID */
-	private static final long serialVersionUID = -3871704546471923061L;
-
-	public InitException()
-	{
-		super();
+		Lobby.playersChanged( match.getMaster(), -1 );
 	}
 }
\ No newline at end of file
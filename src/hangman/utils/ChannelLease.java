@@ -0,0 +1,89 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Multicast channel (address, port, key and match id) leased to a match by the ChannelPool.
+ *  The lease ends when the match is closed, or when its deadline is over if the match is played
+*/
+public class ChannelLease
+{
+	/* the pool which owns the channel */
+	private ChannelPool pool;
+	/* index of the channel in the pool */
+	private int index;
+	/* multicast address */
+	private String address;
+	/* UDP port */
+	private int port;
+	/* cryptographic key */
+	private String key;
+	/* identifier of the match inside the multicast group */
+	private int match_id;
+	/* time after which the channel can be reused, in milliseconds */
+	private volatile long deadline = Long.MAX_VALUE;
+	/* determines if the lease is over */
+	private AtomicBoolean released = new AtomicBoolean( false );
+
+	ChannelLease( final ChannelPool pool, final int index, final String address, final int port, final String key, final int match_id )
+	{
+		this.pool = pool;
+		this.index = index;
+		this.address = address;
+		this.port = port;
+		this.key = key;
+		this.match_id = match_id;
+	}
+
+	/** return the multicast address */
+	public String getAddress()
+	{
+		return address;
+	}
+
+	/** return the UDP port */
+	public int getPort()
+	{
+		return port;
+	}
+
+	/** return the cryptographic key */
+	public String getKey()
+	{
+		return key;
+	}
+
+	/** return the identifier of the match inside the multicast group, 0 if the group is not shared */
+	public int getMatchId()
+	{
+		return match_id;
+	}
+
+	/** let the pool reuse the channel once the specified amount of time is over
+	 * 
+	 * @param millis	the amount of time, in milliseconds
+	*/
+	public void expireAfter( final long millis )
+	{
+		deadline = System.currentTimeMillis() + millis;
+	}
+
+	/** check if the deadline of the lease is over
+	 * 
+	 * @param now	current time, in milliseconds
+	*/
+	boolean isExpired( final long now )
+	{
+		return now >= deadline;
+	}
+
+	/** give the channel back to the pool; the calls after the first one have no effect */
+	public void release()
+	{
+		if(released.compareAndSet( false, true ))
+			pool.release( index, this );
+	}
+}
\ No newline at end of file
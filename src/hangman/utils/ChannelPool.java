@@ -0,0 +1,249 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/** Pool of the multicast channels of the matches.
+ *  The settings describe a CIDR range of multicast addresses and a range of ports, which give the multicast groups:
+ *  the group g uses the address (g mod addresses) of the range and the port (g div addresses).
+ *  A group is shared by "Matches Per Group" matches (1 if not specified): the channel i belongs to the group
+ *  (i div matches per group) and its packets carry the match id i + 1, so the players drop the packets
+ *  of the other matches of the group without decrypting them; the packets of a group which is not shared carry the id 0. Every lease receives a new random key.
+ *  The busy channels are marked in an atomic bitset: a channel is taken with a CAS on the word containing its bit,
+ *  so the creation of the matches doesn't serialize on a lock.
+ *  The settings can be reloaded at runtime: the running matches keep their channel until the end of their lease
+*/
+public class ChannelPool
+{
+	/* bitset of the busy channels */
+	private AtomicLongArray busy;
+	/* current lease of each channel */
+	private AtomicReferenceArray<ChannelLease> leases;
+	/* word where the next search starts, so the channels are reused as late as possible */
+	private AtomicInteger next_word;
+	/* current layout of the channels */
+	private volatile Layout layout;
+
+	/** maximum number of channels */
+	public static final int MAX_CHANNELS = 65536;
+
+	/* size of the random keys, in bytes */
+	private static final int KEY_SIZE = 18;
+	/* source of the keys */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** create a pool with the channels of the settings file
+	 * 
+	 * @param settings		path of the settings file
+	*/
+	public ChannelPool( final String settings ) throws FileNotFoundException, IOException, ParseException
+	{
+		busy = new AtomicLongArray( MAX_CHANNELS / 64 );
+		leases = new AtomicReferenceArray<ChannelLease>( MAX_CHANNELS );
+		next_word = new AtomicInteger( 0 );
+
+		reload( settings );
+	}
+
+	/** load the settings file again; the channels over the new size are not leased anymore
+	 * 
+	 * @param settings		path of the settings file
+	*/
+	public void reload( final String settings ) throws FileNotFoundException, IOException, ParseException
+	{
+		JSONObject obj = (JSONObject) new JSONParser().parse( new FileReader( settings ) );
+
+		String per_group = (String) obj.get( "Matches Per Group" );
+
+		layout = new Layout( (String) obj.get( "Multicast Range" ), (String) obj.get( "Port Range" ),
+							 (per_group == null) ? "1" : per_group );
+	}
+
+	/** return the number of channels */
+	public int size()
+	{
+		return layout.size;
+	}
+
+	/** lease a free channel
+	 * 
+	 * @return the lease, null if all the channels are busy
+	*/
+	public ChannelLease acquire()
+	{
+		Layout current = layout;
+		int n_words = (current.size + 63) / 64;
+
+		int start = Math.floorMod( next_word.getAndIncrement(), n_words );
+		for(int i = 0; i < n_words; i++){
+			int index = take( (start + i) % n_words, current.size );
+			if(index != -1)
+				return lease( index, current );
+		}
+
+		// the channels of the played matches are reused once their deadline is over
+		long now = System.currentTimeMillis();
+		for(int index = 0; index < current.size; index++){
+			ChannelLease lease = leases.get( index );
+			if(lease != null && lease.isExpired( now )){
+				lease.release();
+				int taken = take( index >>> 6, current.size );
+				if(taken != -1)
+					return lease( taken, current );
+			}
+		}
+
+		return null;
+	}
+
+	/** take a free channel of a word of the bitset
+	 * 
+	 * @param word	index of the word
+	 * @param size	number of channels
+	 * 
+	 * @return the index of the channel, -1 if the word has no free channel
+	*/
+	private int take( final int word, final int size )
+	{
+		// the bits over the size of the pool are never free
+		int valid = Math.min( 64, size - (word << 6) );
+		long mask = (valid == 64) ? -1L : (1L << valid) - 1;
+
+		while(true){
+			long bits = busy.get( word );
+			long free = ~bits & mask;
+			if(free == 0)
+				return -1;
+
+			long bit = Long.lowestOneBit( free );
+			if(busy.compareAndSet( word, bits, bits | bit ))
+				return (word << 6) + Long.numberOfTrailingZeros( bit );
+		}
+	}
+
+	/** create the lease of a taken channel
+	 * 
+	 * @param index		index of the channel
+	 * @param current	layout of the channels
+	*/
+	private ChannelLease lease( final int index, final Layout current )
+	{
+		byte key[] = new byte[KEY_SIZE];
+		RANDOM.nextBytes( key );
+
+		ChannelLease lease = new ChannelLease( this, index, current.getAddress( index ), current.getPort( index ),
+											   Base64.getEncoder().encodeToString( key ), current.isShared() ? index + 1 : 0 );
+		leases.set( index, lease );
+
+		return lease;
+	}
+
+	/** give a channel back to the pool
+	 * 
+	 * @param index		index of the channel
+	 * @param lease		the ended lease
+	*/
+	void release( final int index, final ChannelLease lease )
+	{
+		leases.compareAndSet( index, lease, null );
+
+		int word = index >>> 6;
+		long bit = 1L << (index & 63);
+		while(true){
+			long bits = busy.get( word );
+			if(busy.compareAndSet( word, bits, bits & ~bit ))
+				return;
+		}
+	}
+
+	/** immutable description of the channels, derived from the settings */
+	private static class Layout
+	{
+		/* first address of the range, as an unsigned integer */
+		private final int base;
+		/* number of addresses */
+		private final int n_addresses;
+		/* first port */
+		private final int first_port;
+		/* number of matches sharing a group */
+		private final int per_group;
+		/* number of channels */
+		private final int size;
+
+		/** parse the ranges
+		 * 
+		 * @param range		CIDR multicast range, like 230.0.0.0/16
+		 * @param ports		port range, like 9500-9599
+		 * @param matches	number of matches sharing a group
+		*/
+		public Layout( final String range, final String ports, final String matches ) throws IOException
+		{
+			try{
+				int slash = range.indexOf( '/' );
+				byte address[] = InetAddress.getByName( range.substring( 0, slash ) ).getAddress();
+				int prefix = Integer.parseInt( range.substring( slash + 1 ).trim() );
+				if(address.length != 4 || prefix < 4 || prefix > 32 || (address[0] & 0xF0) != 0xE0)
+					throw new IOException( "invalid multicast range " + range );
+
+				int mask = (prefix == 32) ? -1 : ~(-1 >>> prefix);
+				base = (((address[0] & 0xFF) << 24) | ((address[1] & 0xFF) << 16) | ((address[2] & 0xFF) << 8) | (address[3] & 0xFF)) & mask;
+				n_addresses = (int) Math.min( MAX_CHANNELS, 1L << (32 - prefix) );
+
+				int dash = ports.indexOf( '-' );
+				first_port = Integer.parseInt( ports.substring( 0, dash ).trim() );
+				int last_port = Integer.parseInt( ports.substring( dash + 1 ).trim() );
+				if(first_port <= 0 || last_port > 65535 || last_port < first_port)
+					throw new IOException( "invalid port range " + ports );
+
+				per_group = Integer.parseInt( matches.trim() );
+				if(per_group <= 0 || per_group > MAX_CHANNELS)
+					throw new IOException( "invalid number of matches per group " + matches );
+
+				size = (int) Math.min( MAX_CHANNELS, (long) n_addresses * (last_port - first_port + 1) * per_group );
+			}catch( NumberFormatException | StringIndexOutOfBoundsException e ){
+				throw new IOException( "invalid channel settings", e );
+			}
+		}
+
+		/** return the address of a channel
+		 * 
+		 * @param index		index of the channel
+		*/
+		public String getAddress( final int index )
+		{
+			int address = base + (index / per_group) % n_addresses;
+
+			return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+		}
+
+		/** return the port of a channel
+		 * 
+		 * @param index		index of the channel
+		*/
+		public int getPort( final int index )
+		{
+			return first_port + (index / per_group) / n_addresses;
+		}
+
+		/** check if the groups are shared by several matches */
+		public boolean isShared()
+		{
+			return per_group > 1;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,328 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/** Reusable UDP packet exchanged by the players during a match.
+ *  Every packet has the same layout, whatever its type:
+ *
+ *    version (1 byte) | type (1 byte) | letter (2 bytes) | packet number (4 bytes) | ack mask (4 bytes) |
+ *    guesser length (1 byte) | guesser | word length (2 bytes) | word
+ *
+ *  where guesser and word are UTF-8 encoded and the lengths are expressed in bytes.
+ *  A guesser numbers its letters and keeps up to MAX_WINDOW of them in flight; the replies of the master
+ *  acknowledge them selectively: the packet number is the last letter received with all the previous ones,
+ *  and the bit i of the ack mask is set if the letter (packet number + i) is received too.
+ *  The same instance is encoded and decoded again and again without allocating memory:
+ *  the guessers' names are resolved to the String instances already seen, and to their slots:
+ *  the position of a name among the ones seen by the packet, which indexes the state of the guesser.
+*/
+public class GamePacket
+{
+	/* type of the packet */
+	private char type;
+	/* played letter */
+	private char letter;
+	/* packet number */
+	private int pkt_number;
+	/* letters received after the packet number, one bit each */
+	private int ack_mask;
+	/* guesser username */
+	private String guesser;
+	/* slot of the guesser, -1 if it is not remembered */
+	private int guesser_slot;
+	/* current state of the word */
+	private char word[];
+	/* length of the word */
+	private int word_length;
+	/* decoded characters of the last name */
+	private char name[];
+	/* names already decoded */
+	private String known_names[];
+	/* number of names already decoded */
+	private int n_names = 0;
+	/* maximum number of names remembered by the packet */
+	private int max_names;
+
+	/** version of the packet format */
+	public static final int VERSION = 2;
+	/** maximum number of characters of a username */
+	public static final int MAX_NAME_LENGTH = 64;
+	/** maximum number of characters of a word */
+	public static final int MAX_WORD_LENGTH = 256;
+	/** maximum size of an encoded packet */
+	public static final int MAX_PACKET_SIZE = 15 + 3 * MAX_NAME_LENGTH + 3 * MAX_WORD_LENGTH;
+	/** maximum number of letters in flight of a guesser, covered by the ack mask */
+	public static final int MAX_WINDOW = 32;
+
+	/* default maximum number of names remembered by the packet */
+	private static final int MAX_KNOWN_NAMES = 256;
+
+	public GamePacket()
+	{
+		this( MAX_KNOWN_NAMES );
+	}
+
+	/** create a packet which gives a slot to the first names it decodes
+	 *
+	 * @param max_names		maximum number of names remembered by the packet
+	*/
+	public GamePacket( final int max_names )
+	{
+		this.max_names = max_names;
+
+		word = new char[MAX_WORD_LENGTH];
+		name = new char[MAX_NAME_LENGTH];
+		known_names = new String[Math.max( 1, Math.min( max_names, 16 ) )];
+	}
+
+	/** set the content of the packet
+	 *
+	 * @param type			type of the packet
+	 * @param letter		played letter, 0 if not significant
+	 * @param guesser		guesser username, null if not significant
+	 * @param pkt_number	packet number, 0 if not significant
+	 * @param word			current state of the word, null if not significant
+	*/
+	public void set( final char type, final char letter, final String guesser, final int pkt_number, final CharSequence word )
+	{
+		if(guesser != null && guesser.length() > MAX_NAME_LENGTH)
+			throw new IllegalArgumentException( "username too long" );
+		if(word != null && word.length() > MAX_WORD_LENGTH)
+			throw new IllegalArgumentException( "word too long" );
+
+		this.type = type;
+		this.letter = letter;
+		this.guesser = guesser;
+		this.pkt_number = pkt_number;
+		ack_mask = 0;
+
+		word_length = 0;
+		if(word != null){
+			for(int i = 0; i < word.length(); i++)
+				this.word[word_length++] = word.charAt( i );
+		}
+	}
+
+	/** acknowledge the letters of a guesser; the packet must be already set
+	 *
+	 * @param ack		last letter received with all the previous ones
+	 * @param ack_mask	letters received after it, the bit i for the letter (ack + i)
+	*/
+	public void setAck( final int ack, final int ack_mask )
+	{
+		pkt_number = ack;
+		this.ack_mask = ack_mask;
+	}
+
+	/** encode the packet
+	 *
+	 * @param buffer	destination buffer, with at least MAX_PACKET_SIZE bytes available
+	*/
+	public void encode( final ByteBuffer buffer )
+	{
+		buffer.put( (byte) VERSION );
+		buffer.put( (byte) type );
+		buffer.putChar( letter );
+		buffer.putInt( pkt_number );
+		buffer.putInt( ack_mask );
+
+		int start = buffer.position();
+		buffer.put( (byte) 0 );
+		if(guesser != null){
+			for(int i = 0; i < guesser.length(); i++)
+				putChar( buffer, guesser.charAt( i ) );
+		}
+		buffer.put( start, (byte) (buffer.position() - start - 1) );
+
+		start = buffer.position();
+		buffer.putShort( (short) 0 );
+		for(int i = 0; i < word_length; i++)
+			putChar( buffer, word[i] );
+		buffer.putShort( start, (short) (buffer.position() - start - 2) );
+	}
+
+	/** decode a packet
+	 *
+	 * @param buffer	source buffer, positioned at the beginning of the packet
+	 *
+	 * @return TRUE if the packet is valid, FALSE otherwise
+	*/
+	public boolean decode( final ByteBuffer buffer )
+	{
+		try{
+			if(buffer.get() != VERSION)
+				return false;
+
+			type = (char) buffer.get();
+			letter = buffer.getChar();
+			pkt_number = buffer.getInt();
+			ack_mask = buffer.getInt();
+
+			int length = getChars( buffer, buffer.get() & 0xFF, name, MAX_NAME_LENGTH );
+			if(length == -1)
+				return false;
+			guesser_slot = -1;
+			guesser = (length == 0) ? null : resolveName( length );
+
+			word_length = getChars( buffer, buffer.getShort() & 0xFFFF, word, MAX_WORD_LENGTH );
+
+			return word_length != -1;
+		}catch( BufferUnderflowException e ){
+			return false;
+		}
+	}
+
+	/** return the String instance of the last decoded name, creating it only the first time it is seen,
+	 *  and assign the slot of the guesser
+	 *
+	 * @param length	length of the name
+	*/
+	private String resolveName( final int length )
+	{
+		for(int i = 0; i < n_names; i++){
+			String known = known_names[i];
+			if(known.length() == length){
+				int j = 0;
+				while(j < length && known.charAt( j ) == name[j])
+					j++;
+				if(j == length){
+					guesser_slot = i;
+					return known;
+				}
+			}
+		}
+
+		String new_name = new String( name, 0, length );
+		if(n_names < max_names){
+			if(n_names == known_names.length){
+				String names[] = new String[Math.min( n_names * 2, max_names )];
+				System.arraycopy( known_names, 0, names, 0, n_names );
+				known_names = names;
+			}
+
+			guesser_slot = n_names;
+			known_names[n_names++] = new_name;
+		}
+
+		return new_name;
+	}
+
+	/** write a character in UTF-8 (the surrogates are encoded separately)
+	 *
+	 * @param buffer	destination buffer
+	 * @param c			the character
+	*/
+	private static void putChar( final ByteBuffer buffer, final char c )
+	{
+		if(c < 0x80)
+			buffer.put( (byte) c );
+		else if(c < 0x800){
+			buffer.put( (byte) (0xC0 | (c >> 6)) );
+			buffer.put( (byte) (0x80 | (c & 0x3F)) );
+		}
+		else{
+			buffer.put( (byte) (0xE0 | (c >> 12)) );
+			buffer.put( (byte) (0x80 | ((c >> 6) & 0x3F)) );
+			buffer.put( (byte) (0x80 | (c & 0x3F)) );
+		}
+	}
+
+	/** read UTF-8 characters
+	 *
+	 * @param buffer	source buffer
+	 * @param n_bytes	number of encoded bytes
+	 * @param chars		destination array
+	 * @param max		maximum number of characters
+	 *
+	 * @return the number of decoded characters, -1 if they are not valid
+	*/
+	private static int getChars( final ByteBuffer buffer, final int n_bytes, final char chars[], final int max )
+	{
+		int end = buffer.position() + n_bytes;
+		if(end > buffer.limit())
+			return -1;
+
+		int length = 0;
+		while(buffer.position() < end){
+			if(length == max)
+				return -1;
+
+			int b = buffer.get() & 0xFF;
+			if(b < 0x80)
+				chars[length++] = (char) b;
+			else if((b & 0xE0) == 0xC0)
+				chars[length++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+			else
+				chars[length++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+		}
+
+		return (buffer.position() == end) ? length : -1;
+	}
+
+	/** return the type of the packet */
+	public char getType()
+	{
+		return type;
+	}
+
+	/** return the played letter */
+	public char getLetter()
+	{
+		return letter;
+	}
+
+	/** return the packet number */
+	public int getPktNumber()
+	{
+		return pkt_number;
+	}
+
+	/** check if a letter is acknowledged by the packet
+	 *
+	 * @param number	packet number of the letter
+	*/
+	public boolean acknowledges( final int number )
+	{
+		int distance = number - pkt_number;
+		return distance <= 0 || (distance < MAX_WINDOW && (ack_mask >>> distance & 1) != 0);
+	}
+
+	/** return the guesser username */
+	public String getGuesser()
+	{
+		return guesser;
+	}
+
+	/** return the slot of the guesser, from 0 to the maximum number of names of the packet,
+	 *  -1 if the packet has no guesser or its name is not remembered
+	*/
+	public int getGuesserSlot()
+	{
+		return guesser_slot;
+	}
+
+	/** check if the word contains the specified character
+	 *
+	 * @param c		the character
+	*/
+	public boolean wordContains( final char c )
+	{
+		for(int i = 0; i < word_length; i++){
+			if(word[i] == c)
+				return true;
+		}
+
+		return false;
+	}
+
+	/** return the current state of the word */
+	public String getWord()
+	{
+		return new String( word, 0, word_length );
+	}
+}
\ No newline at end of file
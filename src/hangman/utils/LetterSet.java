@@ -0,0 +1,65 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+/** Set of letters stored as a bitset, one bit for each character, without boxing them.
+ *  The bits grow with the highest letter added, so the ASCII letters fit in 2 words
+*/
+public class LetterSet
+{
+	/* the bits of the letters */
+	private long bits[] = new long[2];
+	/* number of letters in the set */
+	private int size = 0;
+
+	/** check if a letter is in the set
+	 *
+	 * @param c		the letter
+	*/
+	public boolean contains( final char c )
+	{
+		int word = c >>> 6;
+		return word < bits.length && (bits[word] & (1L << (c & 63))) != 0;
+	}
+
+	/** add a letter to the set
+	 *
+	 * @param c		the letter
+	 *
+	 * @return TRUE if the letter is added, FALSE if it was already in the set
+	*/
+	public boolean add( final char c )
+	{
+		int word = c >>> 6;
+		if(word >= bits.length){
+			long new_bits[] = new long[Math.max( word + 1, bits.length * 2 )];
+			System.arraycopy( bits, 0, new_bits, 0, bits.length );
+			bits = new_bits;
+		}
+
+		long bit = 1L << (c & 63);
+		if((bits[word] & bit) != 0)
+			return false;
+
+		bits[word] |= bit;
+		size++;
+
+		return true;
+	}
+
+	/** return the number of letters in the set */
+	public int size()
+	{
+		return size;
+	}
+
+	/** remove all the letters */
+	public void clear()
+	{
+		for(int i = 0; i < bits.length; i++)
+			bits[i] = 0;
+		size = 0;
+	}
+}
\ No newline at end of file
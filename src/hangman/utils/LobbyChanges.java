@@ -0,0 +1,65 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.io.Serializable;
+
+/** Coalesced changes of the lobby, sent to the clients at most once per broadcast interval.
+ *  Only the last state of each match is kept, so the changes cover the whole range of sequence numbers
+ *  from getFirst() to getLast() even if some of them doesn't appear anymore.
+ *  The changes covering the range from 0 contain the whole lobby, and replace the local copy of the client
+*/
+public class LobbyChanges implements Serializable
+{
+	/* sequence number of the first change covered */
+	private long first;
+	/* sequence number of the last change covered */
+	private long last;
+	/* last state of each changed match */
+	private LobbyUpdate updates[];
+
+	/* generated serial ID */
+	private static final long serialVersionUID = 3118224075826337305L;
+
+	public LobbyChanges( final long first, final long last, final LobbyUpdate updates[] )
+	{
+		this.first = first;
+		this.last = last;
+		this.updates = updates;
+	}
+
+	/** create the changes containing the whole lobby
+	 * 
+	 * @param snapshot	the current state of the lobby
+	*/
+	public LobbyChanges( final LobbySnapshot snapshot )
+	{
+		this( 0, snapshot.getSequence(), snapshot.getMatches() );
+	}
+
+	/** check if the changes contain the whole lobby */
+	public boolean isComplete()
+	{
+		return first == 0;
+	}
+
+	/** return the sequence number of the first change covered */
+	public long getFirst()
+	{
+		return first;
+	}
+
+	/** return the sequence number of the last change covered */
+	public long getLast()
+	{
+		return last;
+	}
+
+	/** return the last state of each changed match, in order of sequence number */
+	public LobbyUpdate[] getUpdates()
+	{
+		return updates;
+	}
+}
\ No newline at end of file
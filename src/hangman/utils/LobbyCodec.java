@@ -0,0 +1,287 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Binary framing of the lobby TCP channel.
+ *  After the serialization stream header (always sent by the server, so the old clients keep working)
+ *  the client sends the hello line with the version byte right after the type: from then on both
+ *  directions exchange frames made of
+ *
+ *    length (2 bytes) | version (1 byte) | type (1 byte) | payload (length - 2 bytes)
+ *
+ *  The requests carry their argument as UTF-8 text; the START_MATCH payload is
+ *    address length (1 byte) | address | port (2 bytes) | key length (1 byte) | key | match id (4 bytes) | hosted (1 byte)
+ *
+ *  where the match id is missing in the frames of the servers which don't share the multicast groups,
+ *  and the hosted flag in the ones of the servers which don't run the games.
+*/
+public class LobbyCodec
+{
+	/** version of the clients speaking the serialized protocol */
+	public static final int LEGACY = 0;
+	/** current version of the binary protocol */
+	public static final int VERSION = 1;
+	/** size of the length field */
+	public static final int LENGTH_SIZE = 2;
+	/** maximum size of a frame, length field included */
+	public static final int MAX_FRAME_SIZE = 1024;
+
+	/* header written by an ObjectOutputStream */
+	private static final byte STREAM_HEADER[] = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+	/* first value not usable as version byte */
+	private static final char MAX_VERSION = 0x20;
+
+	/** create the hello line announcing the binary protocol
+	 *
+	 * @param username	own username
+	*/
+	public static String helloMessage( final String username )
+	{
+		return Message.HELLO + "" + (char) VERSION + username;
+	}
+
+	/** return the version requested by a hello line
+	 *
+	 * @param message	the hello line
+	 *
+	 * @return the version of the binary protocol, LEGACY if the client is an old one
+	*/
+	public static int helloVersion( final String message )
+	{
+		if(message.length() > 1 && message.charAt( 1 ) < MAX_VERSION)
+			return message.charAt( 1 );
+
+		return LEGACY;
+	}
+
+	/** return the username contained in a hello line
+	 *
+	 * @param message	the hello line
+	*/
+	public static String helloUsername( final String message )
+	{
+		return message.substring( (helloVersion( message ) == LEGACY) ? 1 : 2 );
+	}
+
+	/** encode a message of the server
+	 *
+	 * @param buffer	destination buffer, with at least MAX_FRAME_SIZE bytes available
+	 * @param message	the message to encode
+	*/
+	public static void encode( final ByteBuffer buffer, final LobbyMessage message )
+	{
+		int start = buffer.position();
+
+		buffer.putShort( (short) 0 );
+		buffer.put( (byte) VERSION );
+		buffer.put( (byte) message.getType() );
+
+		if(message.getType() == Message.START_MATCH){
+			byte address[] = message.getAddressBytes(), key[] = message.getKeyBytes();
+
+			buffer.put( (byte) address.length );
+			buffer.put( address );
+			buffer.putShort( (short) message.getPort() );
+			buffer.put( (byte) key.length );
+			buffer.put( key );
+			buffer.putInt( message.getMatchId() );
+			buffer.put( (byte) (message.isHosted() ? 1 : 0) );
+		}
+
+		buffer.putShort( start, (short) (buffer.position() - start - LENGTH_SIZE) );
+	}
+
+	/** encode a message of the server in a new array
+	 *
+	 * @param message	the message to encode
+	*/
+	public static byte[] encode( final LobbyMessage message )
+	{
+		ByteBuffer buffer = ByteBuffer.allocate( MAX_FRAME_SIZE );
+		encode( buffer, message );
+
+		return Arrays.copyOf( buffer.array(), buffer.position() );
+	}
+
+	/** serialize a message of the server as the stream of a connection does, followed by a reset:
+	 *  the handle table is always empty before a message, so the same bytes are valid on every stream
+	 *
+	 * @param message	the message to serialize
+	*/
+	public static byte[] serialize( final LobbyMessage message )
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+
+		try{
+			ObjectOutputStream stream = new ObjectOutputStream( bytes );
+			stream.writeObject( message.toJSON() );
+			stream.reset();
+			stream.flush();
+		}catch( IOException e ){
+			// the bytes are written in memory
+			throw new IllegalStateException( e );
+		}
+
+		byte serialized[] = bytes.toByteArray();
+		return Arrays.copyOfRange( serialized, STREAM_HEADER.length, serialized.length );
+	}
+
+	/** return the serialization stream header sent by the server on connection */
+	public static byte[] streamHeader()
+	{
+		return STREAM_HEADER.clone();
+	}
+
+	/** encode a request of the client
+	 *
+	 * @param buffer	destination buffer, with at least MAX_FRAME_SIZE bytes available
+	 * @param type		type of the request
+	 * @param argument	argument of the request
+	*/
+	public static void encodeRequest( final ByteBuffer buffer, final char type, final String argument )
+	{
+		byte bytes[] = argument.getBytes( StandardCharsets.UTF_8 );
+		if(bytes.length > MAX_FRAME_SIZE - LENGTH_SIZE - 2)
+			throw new IllegalArgumentException( "argument too long" );
+
+		buffer.putShort( (short) (bytes.length + 2) );
+		buffer.put( (byte) VERSION );
+		buffer.put( (byte) type );
+		buffer.put( bytes );
+	}
+
+	/** read a line sent by a client, without reading any byte after the new line
+	 *
+	 * @param in	the input stream
+	 *
+	 * @return the line, null if the stream is over
+	*/
+	public static String readLine( final DataInputStream in ) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream( 32 );
+
+		int b;
+		while((b = in.read()) != '\n'){
+			if(b == -1)
+				return (line.size() == 0) ? null : line.toString();
+			if(line.size() == MAX_FRAME_SIZE)
+				throw new StreamCorruptedException( "line too long" );
+
+			line.write( b );
+		}
+
+		byte bytes[] = line.toByteArray();
+		int length = bytes.length;
+		if(length > 0 && bytes[length - 1] == '\r')
+			length--;
+
+		return new String( bytes, 0, length );
+	}
+
+	/** read a frame
+	 *
+	 * @param in		the input stream
+	 * @param frame		destination array of MAX_FRAME_SIZE bytes, filled with version, type and payload
+	 *
+	 * @return the length of the frame (length field excluded), -1 if the stream is over
+	*/
+	public static int readFrame( final DataInputStream in, final byte frame[] ) throws IOException
+	{
+		int length;
+		try{
+			length = in.readUnsignedShort();
+		}catch( EOFException e ){
+			return -1;
+		}
+
+		if(length < 2 || length > MAX_FRAME_SIZE - LENGTH_SIZE)
+			throw new StreamCorruptedException( "invalid frame length " + length );
+
+		in.readFully( frame, 0, length );
+		if(frame[0] != VERSION)
+			throw new StreamCorruptedException( "unsupported version " + frame[0] );
+
+		return length;
+	}
+
+	/** read the serialization stream header sent by the server on connection */
+	public static void readStreamHeader( final DataInputStream in ) throws IOException
+	{
+		for(int i = 0; i < STREAM_HEADER.length; i++){
+			if(in.readByte() != STREAM_HEADER[i])
+				throw new StreamCorruptedException( "invalid stream header" );
+		}
+	}
+
+	/** read a message of the server
+	 *
+	 * @param in		the input stream
+	 * @param frame		array of MAX_FRAME_SIZE bytes used to read the frame
+	 *
+	 * @return the message, null if the stream is over
+	*/
+	public static LobbyMessage readMessage( final DataInputStream in, final byte frame[] ) throws IOException
+	{
+		int length = readFrame( in, frame );
+		if(length == -1)
+			return null;
+
+		char type = (char) (frame[1] & 0xFF);
+		if(type < 'A' || type > 'Z')
+			throw new StreamCorruptedException( "invalid message type " + (int) type );
+		if(type != Message.START_MATCH)
+			return LobbyMessage.get( type );
+
+		ByteBuffer payload = ByteBuffer.wrap( frame, 2, length - 2 );
+
+		try{
+			byte address[] = new byte[payload.get() & 0xFF];
+			payload.get( address );
+			int port = payload.getShort() & 0xFFFF;
+			byte key[] = new byte[payload.get() & 0xFF];
+			payload.get( key );
+			int match_id = (payload.remaining() >= 4) ? payload.getInt() : 0;
+			boolean hosted = payload.hasRemaining() && payload.get() != 0;
+
+			return new LobbyMessage( InetAddress.getByAddress( address ).getHostAddress(), port,
+									 new String( key, StandardCharsets.UTF_8 ), match_id, hosted );
+		}catch( BufferUnderflowException e ){
+			throw new StreamCorruptedException( "truncated START_MATCH message" );
+		}
+	}
+
+	/** return the type of a frame
+	 *
+	 * @param frame		the frame, starting from the version field
+	 * @param offset	position of the frame inside the array
+	*/
+	public static char requestType( final byte frame[], final int offset )
+	{
+		return (char) frame[offset + 1];
+	}
+
+	/** return the argument of a request
+	 *
+	 * @param frame		the frame, starting from the version field
+	 * @param offset	position of the frame inside the array
+	 * @param length	length of the frame
+	*/
+	public static String requestArgument( final byte frame[], final int offset, final int length )
+	{
+		return new String( frame, offset + 2, length - 2, StandardCharsets.UTF_8 );
+	}
+}
\ No newline at end of file
@@ -0,0 +1,196 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONObject;
+
+/** Immutable message sent by the server to the clients during the lobby phase */
+public class LobbyMessage
+{
+	/* type of the message */
+	private char type;
+	/* multicast address of the match (START_MATCH only) */
+	private String address;
+	/* port of the match (START_MATCH only) */
+	private int port;
+	/* cryptographic key of the match (START_MATCH only) */
+	private String key;
+	/* identifier of the match inside the multicast group, 0 if the group is not shared (START_MATCH only) */
+	private int match_id;
+	/* determines if the game is run by the server instead of the master (START_MATCH only) */
+	private boolean hosted;
+	/* encoded address and key, computed once for all the receivers */
+	private byte address_bytes[], key_bytes[];
+	/* read-only bytes written on the connections of each protocol, computed once for all the receivers */
+	private volatile ByteBuffer serialized, frame;
+
+	/* cache of the messages without payload, indexed by type */
+	private static final LobbyMessage SIMPLE[] = new LobbyMessage['Z' - 'A' + 1];
+
+	static{
+		for(char type = 'A'; type <= 'Z'; type++)
+			SIMPLE[type - 'A'] = new LobbyMessage( type );
+	}
+
+	private LobbyMessage( final char type )
+	{
+		this.type = type;
+	}
+
+	/** create a new START_MATCH message
+	 *
+	 * @param address	multicast address of the match
+	 * @param port		port of the match
+	 * @param key		cryptographic key of the match
+	*/
+	public LobbyMessage( final String address, final int port, final String key )
+	{
+		this( address, port, key, 0 );
+	}
+
+	/** create a new START_MATCH message for a match sharing its multicast group
+	 *
+	 * @param address	multicast address of the match
+	 * @param port		port of the match
+	 * @param key		cryptographic key of the match
+	 * @param match_id	identifier of the match inside the multicast group
+	*/
+	public LobbyMessage( final String address, final int port, final String key, final int match_id )
+	{
+		this( address, port, key, match_id, false );
+	}
+
+	/** create a new START_MATCH message
+	 *
+	 * @param address	multicast address of the match
+	 * @param port		port of the match
+	 * @param key		cryptographic key of the match
+	 * @param match_id	identifier of the match inside the multicast group
+	 * @param hosted	TRUE if the game is run by the server, FALSE if it is run by the master
+	*/
+	public LobbyMessage( final String address, final int port, final String key, final int match_id, final boolean hosted )
+	{
+		type = Message.START_MATCH;
+		this.address = address;
+		this.port = port;
+		this.key = key;
+		this.match_id = match_id;
+		this.hosted = hosted;
+
+		try{
+			address_bytes = InetAddress.getByName( address ).getAddress();
+		}catch( UnknownHostException e ){
+			throw new IllegalArgumentException( "invalid multicast address " + address );
+		}
+		key_bytes = key.getBytes( StandardCharsets.UTF_8 );
+	}
+
+	/** return the shared instance of a message without payload
+	 *
+	 * @param type	type of the message, between 'A' and 'Z'
+	 *
+	 * @throws IllegalArgumentException if the type is not valid
+	*/
+	public static LobbyMessage get( final char type )
+	{
+		if(type < 'A' || type > 'Z')
+			throw new IllegalArgumentException( "invalid message type " + (int) type );
+
+		return SIMPLE[type - 'A'];
+	}
+
+	/** return the type of the message */
+	public char getType()
+	{
+		return type;
+	}
+
+	/** return the multicast address of the match */
+	public String getAddress()
+	{
+		return address;
+	}
+
+	/** return the port of the match */
+	public int getPort()
+	{
+		return port;
+	}
+
+	/** return the cryptographic key of the match */
+	public String getKey()
+	{
+		return key;
+	}
+
+	/** return the identifier of the match inside the multicast group */
+	public int getMatchId()
+	{
+		return match_id;
+	}
+
+	/** check if the game is run by the server instead of the master */
+	public boolean isHosted()
+	{
+		return hosted;
+	}
+
+	/** return the encoded multicast address */
+	byte[] getAddressBytes()
+	{
+		return address_bytes;
+	}
+
+	/** return the encoded cryptographic key */
+	byte[] getKeyBytes()
+	{
+		return key_bytes;
+	}
+
+	/** return a view of the bytes to write on a connection: the bytes are encoded once and shared
+	 *  by all the receivers, each view has its own position
+	 *
+	 * @param version	LobbyCodec.LEGACY for the serialized protocol, the binary protocol version otherwise
+	*/
+	public ByteBuffer getFrame( final int version )
+	{
+		// the message is immutable, so a frame computed twice by concurrent writers is the same
+		if(version == LobbyCodec.LEGACY){
+			if(serialized == null)
+				serialized = ByteBuffer.wrap( LobbyCodec.serialize( this ) ).asReadOnlyBuffer();
+
+			return serialized.duplicate();
+		}
+
+		if(frame == null)
+			frame = ByteBuffer.wrap( LobbyCodec.encode( this ) ).asReadOnlyBuffer();
+
+		return frame.duplicate();
+	}
+
+	/** create the JSON object understood by the clients of the serialized protocol */
+	@SuppressWarnings("unchecked")
+	public JSONObject toJSON()
+	{
+		JSONObject object = new JSONObject();
+
+		object.put( "type", type );
+
+		if(type == Message.START_MATCH){
+			object.put( "address", address );
+			object.put( "port", port );
+			object.put( "key", key );
+			object.put( "match", match_id );
+			object.put( "hosted", hosted );
+		}
+
+		return object;
+	}
+}
\ No newline at end of file
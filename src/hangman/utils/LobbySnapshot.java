@@ -0,0 +1,39 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.io.Serializable;
+
+/** Full state of the lobby at a given sequence number, requested by a client
+ *  when it joins the lobby or when it detects a gap in the received changes
+*/
+public class LobbySnapshot implements Serializable
+{
+	/* sequence number of the last change included */
+	private long sequence;
+	/* the open matches */
+	private LobbyUpdate matches[];
+
+	/* generated serial ID */
+	private static final long serialVersionUID = -1960513839457425410L;
+
+	public LobbySnapshot( final long sequence, final LobbyUpdate matches[] )
+	{
+		this.sequence = sequence;
+		this.matches = matches;
+	}
+
+	/** return the sequence number of the last change included */
+	public long getSequence()
+	{
+		return sequence;
+	}
+
+	/** return the open matches */
+	public LobbyUpdate[] getMatches()
+	{
+		return matches;
+	}
+}
\ No newline at end of file
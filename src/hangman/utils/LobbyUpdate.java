@@ -0,0 +1,81 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.io.Serializable;
+
+/** Immutable change of the lobby, pushed by the server to the clients via RMI callback.
+ *  Every change carries the sequence number of the lobby after its application:
+ *  a client which receives a number different from the next expected one has lost some change.
+*/
+public class LobbyUpdate implements Serializable
+{
+	/* type of the change (MATCH_ADDED, PLAYERS_CHANGED or MATCH_REMOVED) */
+	private char type;
+	/* sequence number of the change */
+	private long sequence;
+	/* master of the match */
+	private String master;
+	/* current number of users */
+	private int current_users;
+	/* max number of users */
+	private int max_users;
+
+	/* generated serial ID */
+	private static final long serialVersionUID = 6502838817095368524L;
+
+	/** create a new change
+	 *
+	 * @param type				type of the change
+	 * @param sequence			sequence number of the change
+	 * @param master			master of the match
+	 * @param current_users		current number of users
+	 * @param max_users			max number of users
+	*/
+	public LobbyUpdate( final char type, final long sequence, final String master, final int current_users, final int max_users )
+	{
+		this.type = type;
+		this.sequence = sequence;
+		this.master = master;
+		this.current_users = current_users;
+		this.max_users = max_users;
+	}
+
+	/** return the type of the change */
+	public char getType()
+	{
+		return type;
+	}
+
+	/** return the sequence number of the change */
+	public long getSequence()
+	{
+		return sequence;
+	}
+
+	/** return the master of the match */
+	public String getMaster()
+	{
+		return master;
+	}
+
+	/** return the current number of users */
+	public int getCurrentUsers()
+	{
+		return current_users;
+	}
+
+	/** return the maximum number of users */
+	public int getMaxUsers()
+	{
+		return max_users;
+	}
+
+	@Override
+	public String toString()
+	{
+		return current_users + "/" + max_users + ", Master: " + master;
+	}
+}
\ No newline at end of file
@@ -4,19 +4,15 @@
 
 package hangman.utils;
 
-import hangman.server.Registry;
+import hangman.server.GameEngine;
+import hangman.server.HostedGame;
+import hangman.server.IOutputChannel;
 
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 public class Match
@@ -28,34 +24,43 @@ public class Match
 	/* master of the match */
 	private String master;
 	/* list of sockets' output interfaces */
-	private ArrayList<ObjectOutputStream> outs;
+	private ArrayList<IOutputChannel> outs;
 	/* master output interface */
-	private ObjectOutputStream master_out;
-	/* own index */
-	private int index;
-	/* indicates where the search of the next free position must start */
-	private static int next_index = -1;
+	private IOutputChannel master_out;
+	/* lease of the multicast channel */
+	private ChannelLease lease;
 	/* mutual exclusion object */
 	private final ReentrantLock MATCH = new ReentrantLock();
+	/* word to guess, supplied by the master to let the server run the game */
+	private volatile String word;
+	/* the game run by the server, null if it is run by the master */
+	private volatile HostedGame game;
+	/* message containing the match informations */
+	private volatile LobbyMessage start_message;
 	/* determines if the match is closed */
 	private boolean closed = false;
-	/* list of indexes */
-	private static boolean indexes_busy[];
-	/* list of ports */
-	private static ArrayList<Integer> ports_list;
-	/* list of multicast addresses and keys */
-	private static ArrayList<String> multicast_addresses, keys;
-	
-	/* mutual exclusion object to obtain the array index */
-	private static final ReentrantLock INDEX_MUTEX = new ReentrantLock();
-
-	public Match( int max_users, String master, ObjectOutputStream out )
+	/* pool of the multicast channels */
+	private static ChannelPool channels;
+
+	/** path of the channels' settings */
+	public static final String SETTINGS = "./match_settings.json";
+
+	/* time after which the channel of a played match is reused: a match lasts at most 5 minutes */
+	private static final long MAX_MATCH_TIME = 6 * 60 * 1000;
+
+	/** create a new match
+	 * 
+	 * @param max_users		max number of users
+	 * @param master		master of the match
+	 * @param out			master output interface
+	 * @param lease			lease of the multicast channel, obtained by acquireChannel()
+	*/
+	public Match( int max_users, String master, IOutputChannel out, ChannelLease lease )
 	{
-		outs = new ArrayList<ObjectOutputStream>( max_users );
+		outs = new ArrayList<IOutputChannel>( max_users );
 		master_out = out;
 
-		index = getIndex();
-
+		this.lease = lease;
 		this.max_users = max_users;
 		this.master = master;
 	}
@@ -63,64 +68,28 @@ public class Match
 	/** initialize the internal structures */
 	public static void init() throws FileNotFoundException, IOException, ParseException
 	{
-		indexes_busy = new boolean[Registry.max_matches];
-
-		multicast_addresses = new ArrayList<String>( Registry.max_matches );
-		ports_list = new ArrayList<Integer>( Registry.max_matches );
-		keys = new ArrayList<String>( Registry.max_matches );
-
-		JSONObject obj = (JSONObject) new JSONParser().parse( new FileReader( "./match_settings.json" ) );
-
-		JSONArray multicast_IP = (JSONArray) obj.get( "Multicast IP" );
-		Iterator<?> iterator = multicast_IP.iterator();
-		while(iterator.hasNext())
-			multicast_addresses.add( (String) iterator.next() );
-
-		JSONArray ports = (JSONArray) obj.get( "Ports" );
-		iterator = ports.iterator();
-		while(iterator.hasNext())
-			ports_list.add( Integer.parseInt( (String) iterator.next() ) );
-
-		JSONArray keys_list = (JSONArray) obj.get( "Keys" );
-		iterator = keys_list.iterator();
-		while(iterator.hasNext())
-			keys.add( (String) iterator.next() );
+		channels = new ChannelPool( SETTINGS );
 	}
 
-	/** obtain the next free index
-	 * 
-	 * @return the first free index
-	*/
-	private int getIndex()
+	/** load the channels' settings again; the running matches keep their channel */
+	public static void reloadChannels() throws FileNotFoundException, IOException, ParseException
 	{
-		int index = 0;
-		int length = indexes_busy.length;
-
-		INDEX_MUTEX.lock();
-
-		for(int i = 0; i < length; i++){
-			next_index = (next_index + 1) % length;
-
-			if(indexes_busy[next_index] == false){
-				indexes_busy[index = next_index] = true;
-				break;
-			}
-		}
-
-		INDEX_MUTEX.unlock();
-
-		return index;
+		channels.reload( SETTINGS );
 	}
 
-	/** realease the acquired index */
-	private void releaseIndex()
+	/** return the number of multicast channels */
+	public static int getChannels()
 	{
-		INDEX_MUTEX.lock();
-
-		indexes_busy[index] = false;
-		next_index = index - 1;
+		return channels.size();
+	}
 
-		INDEX_MUTEX.unlock();
+	/** lease a free multicast channel for a new match
+	 * 
+	 * @return the lease, null if all the channels are busy
+	*/
+	public static ChannelLease acquireChannel()
+	{
+		return channels.acquire();
 	}
 
 	/** return the maximum number of users */
@@ -141,13 +110,22 @@ public class Match
 		return master;
 	}
 
+	/** supply the word to guess, so the game can be run by the server
+	 * 
+	 * @param word	the word
+	*/
+	public void setWord( final String word )
+	{
+		this.word = word;
+	}
+
 	/** adds a customer to the match
 	 * 
 	 * @param out	the socket output interface
 	 * 
 	 * @return 0 if everything is ok, -2 if the match is closed, -3 if the match is full
 	*/
-	public int addUser( final ObjectOutputStream out ) throws IOException
+	public int addUser( final IOutputChannel out )
 	{
 		MATCH.lock();
 
@@ -165,12 +143,22 @@ public class Match
 
 		outs.add( out );
 
-		if(++current_users == max_users)
-			// warns the master that the match is started
-			master_out.writeObject( createMessage( Message.START_MATCH ) );
+		boolean full = (++current_users == max_users);
+
+		// the game is running before anybody knows the match is started; it is hosted holding the lock,
+		// so a concurrent close sees it and leaves the channel to the engine
+		if(full && word != null && GameEngine.isEnabled())
+			game = GameEngine.host( master, lease, word, max_users );
 
 		MATCH.unlock();
 
+		if(full){
+			// warns the master that the match is started; a master which doesn't read is disconnected by its channel
+			try{
+				master_out.writeMessage( createMessage( Message.START_MATCH ) );
+			}catch( IOException e ){}
+		}
+
 		return 0;
 	}
 
@@ -178,7 +166,7 @@ public class Match
 	 * 
 	 * @param out	the socket output interface
 	*/
-	public void removeUser( final ObjectOutputStream out )
+	public void removeUser( final IOutputChannel out )
 	{
 		MATCH.lock();
 
@@ -191,62 +179,78 @@ public class Match
 	/** warn all the guessers that the match is started */
 	public void startMatch()
 	{
-		JSONObject message = createMessage( Message.START_MATCH );
+		LobbyMessage message = createMessage( Message.START_MATCH );
 
 		MATCH.lock();
 
-		// warns all players that the match is started
-		for(int i = 0; i < current_users; i++){
-			try{
-				outs.get( i ).writeObject( message );
-			}catch( Exception e ){}
-		}
-
 		closed = true;
+		ArrayList<IOutputChannel> receivers = new ArrayList<IOutputChannel>( outs );
 
 		MATCH.unlock();
+
+		// warns all players that the match is started
+		broadcast( receivers, message );
+
+		// the server doesn't know when the match is over
+		lease.expireAfter( MAX_MATCH_TIME );
 	}
 
 	/** warn all the guessers that the match is over */
 	public void closeMatch()
 	{
-		JSONObject message = createMessage( Message.MATCH_CLOSED );
+		LobbyMessage message = createMessage( Message.MATCH_CLOSED );
 
 		MATCH.lock();
 
-		// warns all the players that the match is closed
-		for(int i = 0; i < current_users; i++){
-			try{
-				outs.get( i ).writeObject( message );
-			}catch( Exception e ){}
-		}
-
 		closed = true;
+		ArrayList<IOutputChannel> receivers = new ArrayList<IOutputChannel>( outs );
 
 		MATCH.unlock();
 
-		releaseIndex();
+		// warns all the players that the match is closed
+		broadcast( receivers, message );
+
+		// the channel is given back after the game stops using it: the engine gives back the one of a hosted game
+		if(game != null)
+			game.cancel();
+		else
+			lease.release();
 	}
 
-	/** create a new TCP message
+	/** send a message to the specified players: it is encoded once and queued on their channels
+	 *  without holding any lock, so a player which doesn't read is disconnected instead of stalling the others
 	 * 
-	 * @param type	type of the message
+	 * @param receivers		the players' output interfaces
+	 * @param message		the message to send
 	*/
-	@SuppressWarnings("unchecked")
-	private JSONObject createMessage( final char type )
+	private void broadcast( final ArrayList<IOutputChannel> receivers, final LobbyMessage message )
 	{
-		JSONObject object = new JSONObject();
+		// the frames shared by the receivers are computed before the loop
+		message.getFrame( LobbyCodec.LEGACY );
+		message.getFrame( LobbyCodec.VERSION );
 
-		object.put( "type", type );
+		for(int i = 0; i < receivers.size(); i++){
+			try{
+				receivers.get( i ).writeMessage( message );
+			}catch( Exception e ){}
+		}
+	}
 
+	/** return the TCP message of the specified type
+	 * 
+	 * @param type	type of the message
+	*/
+	private LobbyMessage createMessage( final char type )
+	{
 		if(type == Message.START_MATCH){
-			// build the object containing all the match informations
-			object.put( "address", multicast_addresses.get( index ) );
-			object.put( "port", ports_list.get( index ) );
-			object.put( "key", keys.get( index ) );
+			// the match informations don't change, so the message is built only once
+			if(start_message == null)
+				start_message = new LobbyMessage( lease.getAddress(), lease.getPort(), lease.getKey(), lease.getMatchId(), game != null );
+
+			return start_message;
 		}
 
-		return object;
+		return LobbyMessage.get( type );
 	}
 
 	@Override
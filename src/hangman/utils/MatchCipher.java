@@ -0,0 +1,173 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/** Authenticated encryption of the game packets of a match.
+ *  The AES key is derived only once from the key of the match, then every packet costs a single AES-GCM operation.
+ *  An encrypted packet is made of
+ *
+ *    match id (4 bytes) | nonce (12 bytes) | ciphertext | tag (16 bytes)
+ *
+ *  where the nonce is a random prefix, different for each player, followed by a counter:
+ *  a nonce is never used twice with the same key.
+ *  The match id is authenticated with the ciphertext, and lets the players of a multicast group shared
+ *  by several matches drop the packets of the other matches before any cryptographic operation.
+*/
+public class MatchCipher
+{
+	/* the derived key */
+	private SecretKeySpec key;
+	/* cipher used to encrypt */
+	private Cipher encryptor;
+	/* cipher used to decrypt */
+	private Cipher decryptor;
+	/* nonce of the next encrypted packet */
+	private byte nonce[];
+	/* nonce of the last decrypted packet */
+	private byte received_nonce[];
+	/* identifier of the match */
+	private int match_id;
+	/* encoded match id, authenticated as additional data */
+	private byte header[];
+	/* number of encrypted packets */
+	private int counter = 0;
+
+	/** size of the match id */
+	public static final int HEADER_SIZE = 4;
+	/** size of the nonce */
+	public static final int NONCE_SIZE = 12;
+	/** size of the authentication tag */
+	public static final int TAG_SIZE = 16;
+	/** bytes added to a packet by the encryption */
+	public static final int OVERHEAD = HEADER_SIZE + NONCE_SIZE + TAG_SIZE;
+
+	/* size of the random part of the nonce */
+	private static final int PREFIX_SIZE = 8;
+	/* salt of the key derivation, the match key is already different for every match */
+	private static final byte SALT[] = "DistributedHangman".getBytes( StandardCharsets.UTF_8 );
+	/* number of iterations of the key derivation */
+	private static final int ITERATIONS = 10000;
+	/* size of the AES key in bits */
+	private static final int KEY_SIZE = 256;
+	/* source of the nonce prefixes */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** derive the cipher context of a match which doesn't share its multicast group
+	 *
+	 * @param password	the key of the match
+	*/
+	public MatchCipher( final String password ) throws GeneralSecurityException
+	{
+		this( password, 0 );
+	}
+
+	/** derive the cipher context of a match
+	 *
+	 * @param password	the key of the match
+	 * @param match_id	identifier of the match inside the multicast group
+	*/
+	public MatchCipher( final String password, final int match_id ) throws GeneralSecurityException
+	{
+		this.match_id = match_id;
+		header = ByteBuffer.allocate( HEADER_SIZE ).putInt( match_id ).array();
+
+		SecretKeyFactory factory = SecretKeyFactory.getInstance( "PBKDF2WithHmacSHA256" );
+		byte encoded[] = factory.generateSecret( new PBEKeySpec( password.toCharArray(), SALT, ITERATIONS, KEY_SIZE ) ).getEncoded();
+		key = new SecretKeySpec( encoded, "AES" );
+
+		encryptor = Cipher.getInstance( "AES/GCM/NoPadding" );
+		decryptor = Cipher.getInstance( "AES/GCM/NoPadding" );
+
+		nonce = new byte[NONCE_SIZE];
+		received_nonce = new byte[NONCE_SIZE];
+		byte prefix[] = new byte[PREFIX_SIZE];
+		RANDOM.nextBytes( prefix );
+		System.arraycopy( prefix, 0, nonce, 0, PREFIX_SIZE );
+	}
+
+	/** encrypt a packet
+	 *
+	 * @param plain		the packet, from its position to its limit
+	 * @param dst		destination buffer, with at least plain.remaining() + OVERHEAD bytes available
+	*/
+	public synchronized void encrypt( final ByteBuffer plain, final ByteBuffer dst ) throws GeneralSecurityException
+	{
+		if(++counter == 0)
+			throw new GeneralSecurityException( "nonces exhausted" );
+
+		nonce[PREFIX_SIZE] = (byte) (counter >>> 24);
+		nonce[PREFIX_SIZE + 1] = (byte) (counter >>> 16);
+		nonce[PREFIX_SIZE + 2] = (byte) (counter >>> 8);
+		nonce[PREFIX_SIZE + 3] = (byte) counter;
+
+		dst.put( header );
+		dst.put( nonce );
+		encryptor.init( Cipher.ENCRYPT_MODE, key, new GCMParameterSpec( TAG_SIZE * 8, nonce ) );
+		encryptor.updateAAD( header );
+		encryptor.doFinal( plain, dst );
+	}
+
+	/** decrypt a packet
+	 *
+	 * @param src		the encrypted packet, from its position to its limit
+	 * @param plain		destination buffer, with at least src.remaining() bytes available
+	 *
+	 * @return TRUE if the packet is authentic, FALSE otherwise (also when it belongs to another match)
+	*/
+	public synchronized boolean decrypt( final ByteBuffer src, final ByteBuffer plain )
+	{
+		if(!isOwn( src ))
+			return false;
+
+		src.position( src.position() + HEADER_SIZE );
+		src.get( received_nonce );
+
+		try{
+			decryptor.init( Cipher.DECRYPT_MODE, key, new GCMParameterSpec( TAG_SIZE * 8, received_nonce ) );
+			decryptor.updateAAD( header );
+			decryptor.doFinal( src, plain );
+		}catch( AEADBadTagException | ShortBufferException e ){
+			return false;
+		}catch( GeneralSecurityException e ){
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	/** return the match id of an encrypted packet, without any cryptographic operation
+	 *
+	 * @param src		the encrypted packet, from its position to its limit
+	 *
+	 * @return the match id, -1 if the packet is too short
+	*/
+	public static int getMatchId( final ByteBuffer src )
+	{
+		return (src.remaining() >= OVERHEAD) ? src.getInt( src.position() ) : -1;
+	}
+
+	/** check, without any cryptographic operation, if a packet belongs to the match
+	 *
+	 * @param src		the encrypted packet, from its position to its limit
+	*/
+	public boolean isOwn( final ByteBuffer src )
+	{
+		return src.remaining() >= OVERHEAD && src.getInt( src.position() ) == match_id;
+	}
+}
\ No newline at end of file
@@ -38,5 +38,8 @@ public class Message
 						END_OF_TRIALS				= 'R',
 						GUESSER_WIN					= 'S',
 						GO_ON						= 'T',
-						END_GAME					= 'U';
+						END_GAME					= 'U',
+						MATCH_ADDED					= 'V',
+						PLAYERS_CHANGED				= 'W',
+						MATCH_REMOVED				= 'X';
 }
\ No newline at end of file
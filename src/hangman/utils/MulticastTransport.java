@@ -0,0 +1,213 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** UDP transport of a match, built on a DatagramChannel joined to the multicast group.
+ *  The packets are received in a small pool of direct buffers sized to the MTU of the interface,
+ *  and the replies to a single player go through one long-lived unicast channel.
+*/
+public class MulticastTransport
+{
+	/* channel joined to the multicast group */
+	private DatagramChannel channel;
+	/* channel used to reply to a single player */
+	private DatagramChannel reply_channel;
+	/* selector used to wait for the packets */
+	private Selector selector;
+	/* address of the multicast group */
+	private InetSocketAddress group;
+	/* sender of the last received packet */
+	private SocketAddress sender;
+	/* pool of the receive buffers */
+	private ConcurrentLinkedQueue<ByteBuffer> pool;
+	/* size of the receive buffers */
+	private int buffer_size;
+	/* determines if the transport is closed */
+	private volatile boolean closed = false;
+
+	/* number of buffers kept in the pool */
+	private static final int POOL_SIZE = 4;
+	/* size of the IPv4 and UDP headers */
+	private static final int HEADERS_SIZE = 28;
+	/* MTU used when the one of the interface is unknown */
+	private static final int DEFAULT_MTU = 1500;
+
+	/** open the transport and join the multicast group
+	 *
+	 * @param m_address		the multicast address
+	 * @param port			the selected port
+	 * @param max_size		size of the largest valid packet
+	*/
+	public MulticastTransport( final InetAddress m_address, final int port, final int max_size ) throws IOException
+	{
+		group = new InetSocketAddress( m_address, port );
+
+		// interface used for the multicast
+		NetworkInterface iface = findInterface();
+		int mtu = (iface.getMTU() <= 0) ? DEFAULT_MTU : iface.getMTU();
+		buffer_size = Math.min( max_size, mtu - HEADERS_SIZE );
+
+		channel = openChannel( m_address, port, iface );
+		selector = Selector.open();
+		channel.register( selector, SelectionKey.OP_READ );
+
+		pool = new ConcurrentLinkedQueue<ByteBuffer>();
+		for(int i = 0; i < POOL_SIZE; i++)
+			pool.add( ByteBuffer.allocateDirect( buffer_size ) );
+	}
+
+	/** open a non-blocking channel joined to a multicast group; closing the channel leaves the group
+	 *
+	 * @param m_address		the multicast address
+	 * @param port			the selected port
+	 * @param iface			interface used for the multicast
+	*/
+	public static DatagramChannel openChannel( final InetAddress m_address, final int port, final NetworkInterface iface ) throws IOException
+	{
+		DatagramChannel channel = DatagramChannel.open( StandardProtocolFamily.INET );
+		try{
+			channel.setOption( StandardSocketOptions.SO_REUSEADDR, true );
+			channel.bind( new InetSocketAddress( port ) );
+			channel.setOption( StandardSocketOptions.IP_MULTICAST_LOOP, false );
+			channel.setOption( StandardSocketOptions.IP_MULTICAST_IF, iface );
+			channel.join( m_address, iface );
+			channel.configureBlocking( false );
+		}catch( IOException e ){
+			channel.close();
+			throw e;
+		}
+
+		return channel;
+	}
+
+	/** return the interface of the local host address, or the first one supporting the multicast */
+	public static NetworkInterface findInterface() throws IOException
+	{
+		NetworkInterface iface = NetworkInterface.getByInetAddress( InetAddress.getLocalHost() );
+		if(iface != null && iface.supportsMulticast())
+			return iface;
+
+		Enumeration<NetworkInterface> it = NetworkInterface.getNetworkInterfaces();
+		while(it.hasMoreElements()){
+			iface = it.nextElement();
+			if(iface.isUp() && iface.supportsMulticast())
+				return iface;
+		}
+
+		throw new IOException( "no interface supports the multicast" );
+	}
+
+	/** receive a packet
+	 *
+	 * @param timeout	0 if the receive must be blocking, > 0 to wait for the specified amount of milliseconds
+	 *
+	 * @return a buffer containing the packet, to be given back with release(), null if the time is over
+	*/
+	public ByteBuffer receive( final long timeout ) throws IOException
+	{
+		ByteBuffer buffer = pool.poll();
+		if(buffer == null)
+			buffer = ByteBuffer.allocateDirect( buffer_size );
+
+		buffer.clear();
+
+		try{
+			while(true){
+				if(closed)
+					throw new ClosedChannelException();
+
+				if((sender = channel.receive( buffer )) != null){
+					buffer.flip();
+					return buffer;
+				}
+
+				if(selector.select( timeout ) == 0 && timeout > 0){
+					release( buffer );
+					return null;
+				}
+
+				selector.selectedKeys().clear();
+			}
+		}catch( IOException | ClosedSelectorException e ){
+			release( buffer );
+			if(e instanceof IOException)
+				throw (IOException) e;
+			throw new ClosedChannelException();
+		}
+	}
+
+	/** give back a buffer returned by receive()
+	 *
+	 * @param buffer	the buffer
+	*/
+	public void release( final ByteBuffer buffer )
+	{
+		if(buffer.isDirect() && buffer.capacity() == buffer_size && pool.size() < POOL_SIZE)
+			pool.add( buffer );
+	}
+
+	/** return the sender of the last received packet */
+	public SocketAddress getSender()
+	{
+		return sender;
+	}
+
+	/** send a packet to the multicast group
+	 *
+	 * @param buffer	the packet, from its position to its limit
+	*/
+	public void send( final ByteBuffer buffer ) throws IOException
+	{
+		channel.send( buffer, group );
+	}
+
+	/** send a packet to a single player
+	 *
+	 * @param buffer	the packet, from its position to its limit
+	 * @param receiver	address of the player, as returned by getSender()
+	*/
+	public synchronized void reply( final ByteBuffer buffer, final SocketAddress receiver ) throws IOException
+	{
+		if(reply_channel == null)
+			reply_channel = DatagramChannel.open( StandardProtocolFamily.INET );
+
+		reply_channel.send( buffer, receiver );
+	}
+
+	/** leave the multicast group and close the channels */
+	public synchronized void close()
+	{
+		if(closed)
+			return;
+
+		closed = true;
+		selector.wakeup();
+
+		try{ channel.close(); }
+		catch( IOException e ){}
+		if(reply_channel != null){
+			try{ reply_channel.close(); }
+			catch( IOException e ){}
+		}
+		try{ selector.close(); }
+		catch( IOException e ){}
+	}
+}
\ No newline at end of file
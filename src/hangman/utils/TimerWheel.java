@@ -0,0 +1,214 @@
+/**
+ * @author Marco Ceccotti
+*/
+
+package hangman.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Hashed timing wheel: a single thread runs the timeouts of all its users.
+ *  The wheel has a bucket for each tick, and a timeout goes in the bucket of its expiration
+ *  with the number of turns to wait, so scheduling and cancelling cost a constant time whatever the number of timeouts.
+ *  A cancelled timeout is removed when its bucket is visited.
+ *  The tasks run on the thread of the wheel, one after the other: they must be short and they must not block
+*/
+public class TimerWheel extends Thread
+{
+	/* heads of the lists of the buckets */
+	private Timeout buckets[];
+	/* timeouts to put in the buckets */
+	private ConcurrentLinkedQueue<Timeout> pending;
+	/* duration of a tick, in nanoseconds */
+	private long tick;
+	/* start time of the wheel, in nanoseconds */
+	private long start;
+	/* number of elapsed ticks */
+	private long ticks = 0;
+
+	/* the wheel shared by the players of the JVM */
+	private static TimerWheel shared;
+
+	/* duration of a tick of the shared wheel, in milliseconds */
+	private static final int DEFAULT_TICK = 10;
+	/* number of buckets of the shared wheel */
+	private static final int DEFAULT_SIZE = 512;
+	/* maximum number of timeouts put in the buckets for each tick */
+	private static final int MAX_TRANSFERS = 100000;
+
+	/** create the wheel; it must be started
+	 *
+	 * @param name		name of the thread
+	 * @param tick		duration of a tick, in milliseconds
+	 * @param size		number of buckets, a power of 2
+	*/
+	public TimerWheel( final String name, final int tick, final int size )
+	{
+		super( name );
+		setDaemon( true );
+
+		if(tick <= 0 || Integer.bitCount( size ) != 1)
+			throw new IllegalArgumentException( "invalid wheel: tick " + tick + ", size " + size );
+
+		this.tick = tick * 1000000L;
+		buckets = new Timeout[size];
+		pending = new ConcurrentLinkedQueue<Timeout>();
+		start = System.nanoTime();
+	}
+
+	/** return the wheel shared by the players of the JVM, starting it the first time */
+	public static synchronized TimerWheel getShared()
+	{
+		if(shared == null){
+			shared = new TimerWheel( "TimerWheel", DEFAULT_TICK, DEFAULT_SIZE );
+			shared.start();
+		}
+
+		return shared;
+	}
+
+	/** run a task once, after a delay; it can be invoked by any thread
+	 *
+	 * @param task		the task
+	 * @param delay		the delay, in milliseconds
+	 *
+	 * @return the handle of the timeout
+	*/
+	public Timeout schedule( final Runnable task, final long delay )
+	{
+		Timeout timeout = new Timeout( task, System.nanoTime() + Math.max( 0, delay ) * 1000000L );
+		pending.add( timeout );
+
+		return timeout;
+	}
+
+	@Override
+	public void run()
+	{
+		while(true){
+			// the ticks are measured from the start, so a late tick doesn't delay the next ones
+			long deadline = start + (ticks + 1) * tick;
+			long sleep;
+			while((sleep = deadline - System.nanoTime()) > 0){
+				try{
+					Thread.sleep( sleep / 1000000, (int) (sleep % 1000000) );
+				}catch( InterruptedException e ){}
+			}
+
+			transfer();
+			expire( (int) (ticks & (buckets.length - 1)) );
+			ticks++;
+		}
+	}
+
+	/** put the new timeouts in their buckets */
+	private void transfer()
+	{
+		Timeout timeout;
+		for(int i = 0; i < MAX_TRANSFERS && (timeout = pending.poll()) != null; i++){
+			if(timeout.state.get() != Timeout.WAITING)
+				continue;
+
+			// the timeout expires at the first tick ending after its deadline
+			long expiration = Math.max( ticks, (timeout.deadline - start + tick - 1) / tick - 1 );
+			timeout.rounds = (expiration - ticks) / buckets.length;
+
+			int bucket = (int) (expiration & (buckets.length - 1));
+			timeout.next = buckets[bucket];
+			if(timeout.next != null)
+				timeout.next.prev = timeout;
+			buckets[bucket] = timeout;
+		}
+	}
+
+	/** run the expired timeouts of a bucket, and remove the cancelled ones
+	 *
+	 * @param bucket	index of the bucket
+	*/
+	private void expire( final int bucket )
+	{
+		Timeout timeout = buckets[bucket];
+		while(timeout != null){
+			Timeout next = timeout.next;
+
+			if(timeout.state.get() != Timeout.WAITING)
+				remove( bucket, timeout );
+			else if(timeout.rounds == 0){
+				remove( bucket, timeout );
+				if(timeout.state.compareAndSet( Timeout.WAITING, Timeout.EXPIRED )){
+					try{
+						timeout.task.run();
+					}catch( Throwable e ){
+						e.printStackTrace();
+					}
+				}
+			}
+			else
+				timeout.rounds--;
+
+			timeout = next;
+		}
+	}
+
+	/** remove a timeout from a bucket
+	 *
+	 * @param bucket	index of the bucket
+	 * @param timeout	the timeout
+	*/
+	private void remove( final int bucket, final Timeout timeout )
+	{
+		if(timeout.prev != null)
+			timeout.prev.next = timeout.next;
+		else
+			buckets[bucket] = timeout.next;
+		if(timeout.next != null)
+			timeout.next.prev = timeout.prev;
+
+		timeout.prev = timeout.next = null;
+	}
+
+	/** handle of a task scheduled on the wheel */
+	public static class Timeout
+	{
+		/* the task */
+		private final Runnable task;
+		/* time after which the task runs, in nanoseconds */
+		private final long deadline;
+		/* WAITING, EXPIRED or CANCELLED */
+		private final AtomicInteger state = new AtomicInteger( WAITING );
+		/* turns of the wheel to wait, accessed only by the thread of the wheel */
+		private long rounds;
+		/* neighbours in the bucket, accessed only by the thread of the wheel */
+		private Timeout prev, next;
+
+		/* states of a timeout */
+		private static final int WAITING = 0, EXPIRED = 1, CANCELLED = 2;
+
+		Timeout( final Runnable task, final long deadline )
+		{
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/** stop the timeout; it can be invoked by any thread
+		 *
+		 * @return TRUE if the task will not run, FALSE if it has already run or started
+		*/
+		public boolean cancel()
+		{
+			return state.compareAndSet( WAITING, CANCELLED ) || state.get() == CANCELLED;
+		}
+
+		/** check if the task has already run or started */
+		public boolean isExpired()
+		{
+			return state.get() == EXPIRED;
+		}
+
+		/** check if the timeout has been cancelled */
+		public boolean isCancelled()
+		{
+			return state.get() == CANCELLED;
+		}
+	}
+}
\ No newline at end of file